@@ -0,0 +1,623 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Micro-benchmarks for the hot paths that don't need Android: working out
+ * the time left, formatting and fitting the clock's text, the preset
+ * library at 10 to 100,000 entries in both the current format and the
+ * legacy serialized one, the display tick loop, circuits of 10 to 10,000
+ * stations and the session event ring.
+ *
+ * Each benchmark runs in a JVM of its own.  It is warmed up for a second
+ * while its batch grows to about a tenth of a second of work, then timed
+ * over ten batches; the median is printed in nanoseconds per operation,
+ * in the same format as the baseline checked in at jvm/bench/baseline.txt,
+ * followed by any notes the benchmark keeps on the side.  Given a
+ * baseline, each result is shown against it and anything half as slow
+ * again fails the run.  The fastest benchmarks can land either side of a
+ * JIT decision, so rerun one that fails before believing it:
+ *
+ * <pre>
+ * ant -f jvm/build.xml bench
+ * ant -f jvm/build.xml bench -Dbaseline=bench/baseline.txt
+ * </pre>
+ */
+public class Benchmarks {
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private static final long BATCH_NANOS = 100 * NANOS_PER_MILLI;
+    private static final long WARMUP_NANOS = 1000 * NANOS_PER_MILLI;
+    private static final int MEASURED_BATCHES = 10;
+    private static final double REGRESSION_RATIO = 1.5;
+    private static final String RUN_ONE = "--run";
+    private static final String NOTE = "# ";
+    private static final int[] PRESET_COUNTS = {10, 1000, 10000, 100000};
+
+    /**
+     * One benchmark.  The result of each batch is folded into a value the
+     * runner keeps, so the work can't be optimised away.
+     */
+    abstract static class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        abstract long run(int ops) throws Exception;
+
+        /**
+         * Anything worth reporting beside the time, or null.
+         */
+        String notes() throws Exception {
+            return null;
+        }
+    }
+
+    // Results are folded in here so the JIT can't discard them
+    private static long sink = 0;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(RUN_ONE)) {
+            runOne(args[1]);
+            return;
+        }
+
+        Map<String, Double> baseline = null;
+        if (args.length > 0) {
+            baseline = readBaseline(new File(args[0]));
+        }
+
+        boolean regressed = false;
+        for (Benchmark b: all()) {
+            List<String> notes = new ArrayList<String>();
+            double nanos = fork(b.name, notes);
+            String line = String.format(
+                Locale.US,
+                "%-28s %14.1f ns/op",
+                b.name,
+                nanos
+            );
+            Double base = baseline == null ? null : baseline.get(b.name);
+            if (base != null) {
+                double ratio = nanos / base;
+                boolean slower = ratio > REGRESSION_RATIO;
+                line += String.format(Locale.US, "  %5.2fx", ratio);
+                if (slower) {
+                    line += "  REGRESSION";
+                    regressed = true;
+                }
+            }
+            System.out.println(line);
+            for (String note: notes) {
+                System.out.println(note);
+            }
+        }
+
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one benchmark in a JVM of its own, so the profile the JIT
+     * compiles against isn't polluted by the ones before it.
+     */
+    private static double fork(String name, List<String> notes)
+        throws Exception {
+        String java = new File(
+            new File(System.getProperty("java.home"), "bin"),
+            "java"
+        ).getPath();
+        Process process = new ProcessBuilder(
+            java,
+            "-cp",
+            System.getProperty("java.class.path"),
+            Benchmarks.class.getName(),
+            RUN_ONE,
+            name
+        ).redirectErrorStream(true).start();
+
+        // Only the last line is the result; notes before it are passed on
+        // and anything else is the child's diagnostics
+
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), "UTF-8")
+        );
+        String result = null;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(NOTE)) {
+                    notes.add(line);
+                }
+                result = line;
+            }
+        } finally {
+            in.close();
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IOException(name + " failed: " + result);
+        }
+        return Double.parseDouble(result.split(" ")[0]);
+    }
+
+    private static void runOne(String name) throws Exception {
+        for (Benchmark b: all()) {
+            if (b.name.equals(name)) {
+                double nanos = measure(b);
+                String notes = b.notes();
+                if (notes != null) {
+                    System.out.println(NOTE + notes);
+                }
+                // Printing the sink keeps every result live
+                System.out.println(nanos + " " + (sink & 1));
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No benchmark " + name);
+    }
+
+    private static List<Benchmark> all() throws IOException {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(secondsLeft());
+        benchmarks.add(formatTime());
+        benchmarks.add(fitFontSize());
+        benchmarks.add(tick("tick.poll10ms", 10 * NANOS_PER_MILLI));
+        benchmarks.add(tick("tick.displayChange", 0));
+        for (int count: PRESET_COUNTS) {
+            List<Preset> presets = presets(count);
+            benchmarks.add(sortPresets(presets));
+            benchmarks.add(encodePresets(presets));
+            benchmarks.add(decodePresets(presets));
+            benchmarks.add(legacyEncodePresets(presets));
+            benchmarks.add(legacyDecodePresets(presets));
+        }
+        for (int stations = 10; stations <= 10000; stations *= 10) {
+            benchmarks.add(circuit(stations));
+        }
+        benchmarks.add(events());
+        return benchmarks;
+    }
+
+    /**
+     * Median nanoseconds per operation over the measured batches.
+     */
+    private static double measure(Benchmark b) throws Exception {
+        // Warm up while growing the batch towards the target length; the
+        // first batches include class loading and interpreted code, so
+        // growth is capped at doubling rather than extrapolated from them
+        int ops = 1;
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            long start = System.nanoTime();
+            sink += b.run(ops);
+            long time = Math.max(System.nanoTime() - start, 1);
+            long scaled = Math.min(ops * BATCH_NANOS / time, 2L * ops);
+            ops = (int)Math.max(1, Math.min(scaled, Integer.MAX_VALUE / 2));
+        }
+
+        double[] results = new double[MEASURED_BATCHES];
+        for (int i = 0; i < results.length; i++) {
+            long start = System.nanoTime();
+            sink += b.run(ops);
+            results[i] = (double)(System.nanoTime() - start) / ops;
+        }
+        Arrays.sort(results);
+        return results[results.length / 2];
+    }
+
+    private static Map<String, Double> readBaseline(File file)
+        throws IOException {
+        Map<String, Double> baseline = new HashMap<String, Double>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 2 || fields[0].startsWith("#")) {
+                    continue;
+                }
+                baseline.put(fields[0], Double.valueOf(fields[1]));
+            }
+        } finally {
+            in.close();
+        }
+        return baseline;
+    }
+
+    private static IntervalProgram boxing() {
+        return new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 30),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            IntervalProgram.FOREVER
+        );
+    }
+
+    /**
+     * What the display asks of the engine on every frame, at an instant
+     * that moves on a millisecond each time.
+     */
+    private static Benchmark secondsLeft() {
+        return new Benchmark("engine.secondsLeft") {
+            @Override
+            long run(int ops) {
+                SessionSimulator.VirtualClock clock =
+                    new SessionSimulator.VirtualClock(0);
+                TimerEngine engine = new TimerEngine(clock, boxing());
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    clock.set(i * NANOS_PER_MILLI);
+                    result += engine.getSecondsLeft();
+                    result += engine.getNanosUntilDisplayChange();
+                }
+                return result;
+            }
+        };
+    }
+
+    private static Benchmark formatTime() {
+        return new Benchmark("clock.formatTime") {
+            @Override
+            long run(int ops) {
+                char[] text = new char[5];
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    ClockText.formatTime(i % 6000, text);
+                    result += text[4];
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Fits the countdown digits into a phone-sized box, measuring with a
+     * fixed-pitch stand-in for Paint.
+     */
+    private static Benchmark fitFontSize() {
+        final String[] options = {
+            "00:00", "11:11", "22:22", "33:33", "44:44",
+            "55:55", "66:66", "77:77", "88:88", "99:99",
+        };
+        final ClockText.Measurer measurer = new ClockText.Measurer() {
+            @Override
+            public void measure(String text, float fontSize, float[] bounds) {
+                float width = 0;
+                for (int i = 0; i < text.length(); i++) {
+                    width += text.charAt(i) == ':' ? 0.3f : 0.55f;
+                }
+                bounds[0] = (float)Math.ceil(width * fontSize);
+                bounds[1] = (float)Math.ceil(0.72f * fontSize);
+            }
+        };
+        return new Benchmark("clock.fitFontSize") {
+            @Override
+            long run(int ops) {
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    float width = 600 + (i & 63);
+                    result += (long)ClockText.fitFontSize(
+                        measurer,
+                        width,
+                        400,
+                        options
+                    );
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Ticks through a boxing session the way the display does: update the
+     * engine and read the countdown, then sleep either for a fixed poll
+     * interval or, given none, until the display next changes.  An
+     * operation is one tick.
+     */
+    private static Benchmark tick(String name, final long interval) {
+        return new Benchmark(name) {
+            @Override
+            long run(int ops) {
+                SessionSimulator.VirtualClock clock =
+                    new SessionSimulator.VirtualClock(0);
+                TimerEngine engine = new TimerEngine(clock, boxing());
+                long now = 0;
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    if (engine.update()) {
+                        result++;
+                    }
+                    result += engine.getSecondsLeft();
+                    long delay = interval != 0
+                        ? interval
+                        : engine.getNanosUntilDisplayChange();
+                    now += Math.max(delay, 1);
+                    clock.set(now);
+                }
+                return result;
+            }
+        };
+    }
+
+    private static List<Preset> presets(int count) {
+        Random random = new Random(count);
+        List<Preset> presets = new ArrayList<Preset>(count);
+        for (int i = 0; i < count; i++) {
+            // A HashMap, as both formats give back when reading
+            Map<TimerPhase, Integer> times =
+                new HashMap<TimerPhase, Integer>();
+            for (TimerPhase p: TimerPhase.values()) {
+                times.put(p, random.nextInt(600));
+            }
+            String name = "Preset " + Integer.toHexString(random.nextInt());
+            presets.add(new Preset(name, times));
+        }
+        return presets;
+    }
+
+    private static Benchmark sortPresets(final List<Preset> presets) {
+        return new Benchmark("presets.sort." + presets.size()) {
+            @Override
+            long run(int ops) {
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    List<Preset> copy = new ArrayList<Preset>(presets);
+                    Collections.sort(copy);
+                    result += copy.get(0).getName().length();
+                }
+                return result;
+            }
+        };
+    }
+
+    private static Benchmark encodePresets(final List<Preset> presets) {
+        return new Benchmark("presets.encode." + presets.size()) {
+            @Override
+            long run(int ops) throws IOException {
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    result += PresetStore.encode(presets).remaining();
+                }
+                return result;
+            }
+        };
+    }
+
+    private static Benchmark decodePresets(List<Preset> presets)
+        throws IOException {
+        final ByteBuffer encoded = PresetStore.encode(presets);
+        return new Benchmark("presets.decode." + presets.size()) {
+            @Override
+            long run(int ops) throws IOException {
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    result += PresetStore.decode(encoded.duplicate()).size();
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Writes the library the way it was saved before PresetStore, as a
+     * serialized list.
+     */
+    private static byte[] legacyEncode(List<Preset> presets)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(new ArrayList<Preset>(presets));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Benchmark legacyEncodePresets(final List<Preset> presets) {
+        return new Benchmark("presets.legacyEncode." + presets.size()) {
+            @Override
+            long run(int ops) throws IOException {
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    result += legacyEncode(presets).length;
+                }
+                return result;
+            }
+        };
+    }
+
+    private static Benchmark legacyDecodePresets(List<Preset> presets)
+        throws IOException {
+        final byte[] encoded = legacyEncode(presets);
+        return new Benchmark("presets.legacyDecode." + presets.size()) {
+            @Override
+            long run(int ops) throws IOException {
+                long result = 0;
+                for (int i = 0; i < ops; i++) {
+                    result += PresetStore.readLegacy(
+                        new ByteArrayInputStream(encoded)
+                    ).size();
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Runs a circuit of boxing stations spread evenly over the cycle, waking
+     * only when the wheel says a boundary is due.  An operation is one
+     * station crossing a boundary; the notes say how many share a wakeup.
+     */
+    private static Benchmark circuit(final int stations) {
+        return new Benchmark("circuit.advance." + stations) {
+            private SessionSimulator.VirtualClock clock = null;
+            private Circuit circuit = null;
+            private long boundaries = 0;
+            private long wakes = 0;
+
+            @Override
+            long run(int ops) {
+                if (clock == null) {
+                    clock = new SessionSimulator.VirtualClock(0);
+                    circuit = new Circuit(clock, staggered(stations));
+                }
+                long done = 0;
+                while (done < ops) {
+                    clock.set(circuit.getNextWake());
+                    done += circuit.advance();
+                    wakes++;
+                }
+                boundaries += done;
+                return done;
+            }
+
+            @Override
+            String notes() {
+                return String.format(
+                    Locale.US,
+                    "%.2f boundaries per wakeup",
+                    boundaries / (double)Math.max(wakes, 1)
+                );
+            }
+        };
+    }
+
+    private static IntervalProgram[] staggered(int stations) {
+        IntervalProgram.Segment[] cycle = {
+            new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+            new IntervalProgram.Segment(TimerPhase.REST, 60),
+        };
+        IntervalProgram[] programs = new IntervalProgram[stations];
+        for (int i = 0; i < stations; i++) {
+            IntervalProgram.Segment[] leadIn = {
+                new IntervalProgram.Segment(
+                    TimerPhase.PREP,
+                    30 + 240 * i / stations
+                ),
+            };
+            programs[i] =
+                new IntervalProgram(leadIn, cycle, IntervalProgram.FOREVER);
+        }
+        return programs;
+    }
+
+    /**
+     * Passes events through an {@link EventRing} to a reader spinning on
+     * another thread.  The writer holds back whenever it's half a ring
+     * ahead, so nothing is dropped and the time is what it takes to
+     * deliver each event, not only to publish it; an operation is one
+     * event delivered.  The notes give the latency the reader saw.
+     */
+    private static Benchmark events() {
+        final int capacity = 1024;
+        return new Benchmark("events.deliver") {
+            private final EventRing ring = new EventRing(capacity);
+            private final EventRing.Reader reader = ring.newReader();
+            private volatile long delivered = 0;
+            private long published = 0;
+            private long totalLatency = 0;
+            private long maxLatency = 0;
+            private Thread consumer = null;
+            private volatile boolean stopped = false;
+
+            @Override
+            long run(int ops) {
+                if (consumer == null) {
+                    consumer = startConsumer();
+                }
+                for (int i = 0; i < ops; i++) {
+                    while (published - delivered >= capacity / 2) {
+                        Thread.yield();
+                    }
+                    ring.publish(
+                        EventRing.Type.CUE,
+                        System.nanoTime(),
+                        TimerPhase.ROUND,
+                        i,
+                        Cue.COUNTDOWN
+                    );
+                    published++;
+                }
+                while (delivered < published) {
+                    Thread.yield();
+                }
+                if (reader.getDropped() != 0) {
+                    throw new IllegalStateException(
+                        reader.getDropped() + " events dropped"
+                    );
+                }
+                return ops;
+            }
+
+            private Thread startConsumer() {
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        EventRing.Consumer sum = new EventRing.Consumer() {
+                            @Override
+                            public void onEvent(
+                                EventRing.Event event,
+                                boolean endOfBatch
+                            ) {
+                                long latency = System.nanoTime() - event.time;
+                                totalLatency += latency;
+                                maxLatency = Math.max(maxLatency, latency);
+                                delivered++;
+                            }
+                        };
+                        while (!stopped) {
+                            if (reader.drain(sum) == 0) {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+                return thread;
+            }
+
+            @Override
+            String notes() throws InterruptedException {
+                stopped = true;
+                consumer.join();
+                return String.format(
+                    Locale.US,
+                    "%d delivered, %d dropped, latency mean %.2f us, " +
+                        "max %.2f us",
+                    delivered,
+                    reader.getDropped(),
+                    totalLatency / Math.max(delivered, 1) / 1e3,
+                    maxLatency / 1e3
+                );
+            }
+        };
+    }
+}
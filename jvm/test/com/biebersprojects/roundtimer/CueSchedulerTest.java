@@ -0,0 +1,242 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Plays whole sessions against a stand-in for the alarm manager, handling
+ * each alarm the way {@link TimerService} does, and checks which cues
+ * sound and when.
+ */
+public class CueSchedulerTest {
+    private static final long NANOS_PER_SECOND = TimerEngine.NANOS_PER_SECOND;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int ROUNDS = 3;
+
+    private IntervalProgram program;
+    private SessionSimulator.VirtualClock clock;
+    private TimerEngine engine;
+    private CueScheduler scheduler;
+    private long alarm;
+    private List<Long> sounded;
+    private List<Long> soundedAt;
+    private List<Long> wakeups;
+
+    @Before
+    public void startSession() {
+        startSession(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 30),
+            }
+        );
+    }
+
+    /**
+     * Starts a session with the given lead-in, arming the first cue a
+     * moment after the engine starts, as the service does.
+     */
+    private void startSession(IntervalProgram.Segment[] leadIn) {
+        program = new IntervalProgram(
+            leadIn,
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            ROUNDS
+        );
+        clock = new SessionSimulator.VirtualClock(1000 * NANOS_PER_SECOND);
+        engine = new TimerEngine(clock, program);
+        scheduler = new CueScheduler(new CueTimeline(program));
+        sounded = new ArrayList<Long>();
+        soundedAt = new ArrayList<Long>();
+        wakeups = new ArrayList<Long>();
+        clock.set(clock.nanoTime() + 5 * NANOS_PER_MILLI);
+        alarm = scheduler.arm(
+            engine,
+            CueScheduler.firstAfter(engine.getElapsed())
+        );
+    }
+
+    @Test
+    public void punctualAlarmsSoundEveryCueOnTime() {
+        while (alarm != CueScheduler.NO_ALARM) {
+            clock.set(alarm);
+            fire();
+        }
+
+        assertEquals(allCues(), sounded);
+        assertEquals(sounded, soundedAt);
+        assertTrue(engine.isFinished());
+    }
+
+    @Test
+    public void firstBellRingsWithoutPrep() {
+        startSession(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 0),
+            }
+        );
+        runToEnd();
+
+        assertEquals(allCues(), sounded);
+        assertEquals(0L, (long)sounded.get(0));
+    }
+
+    @Test
+    public void emptyLeadInSoundsEveryCue() {
+        startSession(new IntervalProgram.Segment[0]);
+        runToEnd();
+
+        assertEquals(allCues(), sounded);
+    }
+
+    @Test
+    public void earlyAlarmsArmTheSameCueAgain() {
+        List<Long> expected = allCues();
+        while (alarm != CueScheduler.NO_ALARM) {
+            long due = alarm;
+            clock.set(due - 100 * NANOS_PER_MILLI);
+            fire();
+            assertEquals(due, alarm);
+            clock.set(due);
+            fire();
+        }
+
+        assertEquals(expected, sounded);
+    }
+
+    @Test
+    public void lateAlarmsPassOverStaleCues() {
+        Random random = new Random(13);
+        List<Long> expected = allCues();
+        while (alarm != CueScheduler.NO_ALARM) {
+            long lateness =
+                (long)(random.nextDouble() * 2 * CueScheduler.MAX_LATENESS);
+            clock.set(Math.max(alarm + lateness, clock.nanoTime()));
+            fire();
+        }
+
+        assertTrue(engine.isFinished());
+        long last = -1;
+        for (int i = 0; i < sounded.size(); i++) {
+            long time = sounded.get(i);
+            assertTrue("Sounded twice or out of order", time > last);
+            assertTrue(expected.contains(time));
+            long late = soundedAt.get(i) - time;
+            assertTrue(late >= 0 && late < CueScheduler.MAX_LATENESS);
+            last = time;
+        }
+        // A cue is only passed over if it was already stale the first time
+        // the service woke after it
+        for (long time: expected) {
+            if (sounded.contains(time)) {
+                continue;
+            }
+            long woke = -1;
+            for (long w: wakeups) {
+                if (w >= time) {
+                    woke = w;
+                    break;
+                }
+            }
+            assertTrue(
+                "Passed over fresh cue at " + time,
+                woke - time >= CueScheduler.MAX_LATENESS
+            );
+        }
+        assertTrue(sounded.size() < expected.size());
+    }
+
+    @Test
+    public void pausingDisarmsAndResumingShiftsTheSchedule() {
+        // Into the first round, then paused for a minute
+        while (engine.getPhase() == TimerPhase.PREP) {
+            clock.set(alarm);
+            fire();
+        }
+        long next = alarm;
+        clock.set(clock.nanoTime() + 5 * NANOS_PER_SECOND);
+        engine.update();
+        engine.pause();
+        alarm = scheduler.arm(engine, engine.getElapsed());
+        assertEquals(CueScheduler.NO_ALARM, alarm);
+
+        clock.set(clock.nanoTime() + 60 * NANOS_PER_SECOND);
+        engine.resume();
+        alarm = scheduler.arm(engine, engine.getElapsed());
+        assertEquals(next + 60 * NANOS_PER_SECOND, alarm);
+
+        while (alarm != CueScheduler.NO_ALARM) {
+            clock.set(alarm);
+            fire();
+        }
+        assertEquals(allCues(), sounded);
+    }
+
+    /**
+     * Wakes at every alarm, or straight away if it's already due.
+     */
+    private void runToEnd() {
+        while (alarm != CueScheduler.NO_ALARM) {
+            clock.set(Math.max(alarm, clock.nanoTime()));
+            fire();
+        }
+    }
+
+    /**
+     * What the service does when the alarm goes off.
+     */
+    private void fire() {
+        long elapsed = engine.getElapsed();
+        wakeups.add(elapsed);
+        CueScheduler.Alarm result = scheduler.onAlarm(elapsed);
+        CueTimeline.Entry cue = scheduler.getArmed();
+        if (result == CueScheduler.Alarm.NONE) {
+            return;
+        }
+        if (result == CueScheduler.Alarm.EARLY) {
+            alarm = scheduler.arm(engine, cue.time);
+            return;
+        }
+
+        engine.update();
+        if (result == CueScheduler.Alarm.DUE) {
+            sounded.add(cue.time);
+            soundedAt.add(elapsed);
+        }
+        alarm = scheduler.arm(engine, scheduler.nextAfter(elapsed));
+    }
+
+    private List<Long> allCues() {
+        List<Long> times = new ArrayList<Long>();
+        CueTimeline timeline = new CueTimeline(program);
+        CueTimeline.Entry entry = new CueTimeline.Entry();
+        for (long t = 0; timeline.next(t, entry); t = entry.time + 1) {
+            times.add(entry.time);
+        }
+        return times;
+    }
+}
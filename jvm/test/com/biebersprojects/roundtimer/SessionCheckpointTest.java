@@ -0,0 +1,229 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Kills sessions at random points and checks each one carries on from the
+ * checkpoint exactly where an uninterrupted session would be.
+ */
+public class SessionCheckpointTest {
+    private static final long NANOS_PER_SECOND = TimerEngine.NANOS_PER_SECOND;
+    private static final int SESSIONS = 500;
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("session", ".checkpoint");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void restoresKilledSessions() throws IOException {
+        Random random = new Random(16);
+        for (int i = 0; i < SESSIONS; i++) {
+            killAndRestore(randomProgram(random), random, "session " + i);
+            file.delete();
+        }
+    }
+
+    @Test
+    public void ignoresClearedSession() throws IOException {
+        SessionSimulator.VirtualClock clock =
+            new SessionSimulator.VirtualClock(0);
+        TimerEngine engine = new TimerEngine(clock, boxing());
+        SessionCheckpoint checkpoint = SessionCheckpoint.open(file);
+        checkpoint.save(engine);
+        checkpoint.clear();
+        checkpoint.close();
+
+        assertNull(SessionCheckpoint.read(file, NANOS_PER_SECOND));
+    }
+
+    @Test
+    public void ignoresCheckpointFromTheFuture() throws IOException {
+        SessionSimulator.VirtualClock clock =
+            new SessionSimulator.VirtualClock(1000 * NANOS_PER_SECOND);
+        TimerEngine engine = new TimerEngine(clock, boxing());
+        SessionCheckpoint checkpoint = SessionCheckpoint.open(file);
+        checkpoint.save(engine);
+        checkpoint.close();
+
+        // As after a reboot, when the clock starts again from zero
+        assertNull(SessionCheckpoint.read(file, NANOS_PER_SECOND));
+    }
+
+    /**
+     * Runs the program as the service does, saving at every boundary and on
+     * pause and resume, until a random instant where the process dies.
+     * Some time later a fresh engine is restored from the file, and must
+     * agree with one that ran on undisturbed.
+     */
+    private void killAndRestore(
+        IntervalProgram program,
+        Random random,
+        String name
+    ) throws IOException {
+        SessionSimulator.VirtualClock clock =
+            new SessionSimulator.VirtualClock(
+                random.nextInt(1000) * NANOS_PER_SECOND
+            );
+        TimerEngine engine = new TimerEngine(clock, program);
+        SessionCheckpoint checkpoint = SessionCheckpoint.open(file);
+        checkpoint.save(engine);
+
+        long now = clock.nanoTime();
+        int steps = random.nextInt(50);
+        for (int i = 0; i < steps && !engine.isFinished(); i++) {
+            now += randomDelay(random);
+            clock.set(now);
+            int action = random.nextInt(4);
+            if (action == 0 && !engine.isPaused()) {
+                // The service settles the position before pausing
+                engine.update();
+                engine.pause();
+                checkpoint.save(engine);
+            } else if (action == 1 && engine.isPaused()) {
+                engine.resume();
+                checkpoint.save(engine);
+            } else if (engine.update()) {
+                checkpoint.save(engine);
+            }
+        }
+
+        // Killed: the mapping goes without the session being cleared
+        checkpoint.close();
+
+        now += randomDelay(random);
+        clock.set(now);
+        engine.update();
+
+        SessionCheckpoint.Session read = SessionCheckpoint.read(file, now);
+        SessionCheckpoint reopened = SessionCheckpoint.open(file);
+        SessionCheckpoint.Session loaded = reopened.load(now);
+        reopened.close();
+
+        if (engine.isFinished()) {
+            assertNull(name + " finished", read);
+            assertNull(name + " finished", loaded);
+            return;
+        }
+        assertNotNull(name + " read", read);
+        assertNotNull(name + " loaded", loaded);
+        assertSameSession(name + " read", engine, restore(clock, read));
+        assertSameSession(name + " loaded", engine, restore(clock, loaded));
+    }
+
+    private static TimerEngine restore(
+        TimerEngine.Clock clock,
+        SessionCheckpoint.Session session
+    ) {
+        TimerEngine engine = new TimerEngine(clock, session.program);
+        engine.restore(session.origin, session.paused, session.pausedAt);
+        return engine;
+    }
+
+    private static void assertSameSession(
+        String name,
+        TimerEngine expected,
+        TimerEngine actual
+    ) {
+        assertEquals(name, expected.getPhase(), actual.getPhase());
+        assertEquals(name, expected.getRound(), actual.getRound());
+        assertEquals(name, expected.getSegment(), actual.getSegment());
+        assertEquals(name, expected.isPaused(), actual.isPaused());
+        assertEquals(name, expected.getElapsed(), actual.getElapsed());
+        assertEquals(name, expected.getPhaseEnd(), actual.getPhaseEnd());
+    }
+
+    /**
+     * Anything from a moment to a few minutes, so kills land inside phases,
+     * on boundaries and across several of them.
+     */
+    private static long randomDelay(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return random.nextInt(1000) * 1000000L;
+            case 1:
+                return random.nextInt(10) * NANOS_PER_SECOND;
+            default:
+                return random.nextInt(300) * NANOS_PER_SECOND +
+                    random.nextInt(1000000000);
+        }
+    }
+
+    private static IntervalProgram boxing() {
+        return new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 30),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            IntervalProgram.FOREVER
+        );
+    }
+
+    private static IntervalProgram randomProgram(Random random) {
+        IntervalProgram.Segment[] leadIn =
+            new IntervalProgram.Segment[random.nextInt(3)];
+        for (int i = 0; i < leadIn.length; i++) {
+            leadIn[i] = randomSegment(random, TimerPhase.PREP);
+        }
+        IntervalProgram.Segment[] cycle =
+            new IntervalProgram.Segment[1 + random.nextInt(3)];
+        for (int i = 0; i < cycle.length; i++) {
+            cycle[i] = randomSegment(
+                random,
+                i % 2 == 0 ? TimerPhase.ROUND : TimerPhase.REST
+            );
+        }
+        // A cycle must take some time if it repeats for ever
+        cycle[0] = new IntervalProgram.Segment(
+            TimerPhase.ROUND,
+            1 + random.nextInt(300)
+        );
+        int cycles = random.nextBoolean()
+            ? IntervalProgram.FOREVER
+            : 1 + random.nextInt(10);
+        return new IntervalProgram(leadIn, cycle, cycles);
+    }
+
+    private static IntervalProgram.Segment randomSegment(
+        Random random,
+        TimerPhase phase
+    ) {
+        return new IntervalProgram.Segment(phase, random.nextInt(300));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs long sessions through {@link SessionSimulator}, which fails the run
+ * if any transition drifts off its boundary, and checks that every phase
+ * and round was counted.
+ */
+public class SessionSimulatorTest {
+    private static final long NANOS_PER_SECOND = TimerEngine.NANOS_PER_SECOND;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long DAY = 24 * 3600 * NANOS_PER_SECOND;
+
+    @Test
+    public void boxingRunsADayWithoutDrift() {
+        IntervalProgram boxing = new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 30),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            IntervalProgram.FOREVER
+        );
+        SessionSimulator.Result result = new SessionSimulator(boxing).run(DAY);
+
+        // 30 s of prep, then 359 whole cycles and the round and rest of a
+        // 360th, which starts its rest 30 s before the day is out
+        assertEquals(DAY, result.elapsed);
+        assertEquals(360, result.rounds);
+        assertEquals(1 + 2 * 360, result.transitions);
+        assertEquals(0, result.maxCueLateness);
+    }
+
+    @Test
+    public void tabataRunsAThousandRoundsToTheEnd() {
+        IntervalProgram tabata = new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 10),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 20),
+                new IntervalProgram.Segment(TimerPhase.REST, 10),
+            },
+            1000
+        );
+        SessionSimulator.Result result = new SessionSimulator(tabata).run(DAY);
+
+        assertEquals(tabata.getLength(), result.elapsed);
+        assertEquals(1000, result.rounds);
+        assertEquals(1 + 2 * 1000, result.transitions);
+        assertEquals(0, result.maxCueLateness);
+    }
+
+    @Test
+    public void lateWakeupsDontDrift() {
+        IntervalProgram emom = new IntervalProgram(
+            new IntervalProgram.Segment[0],
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 60),
+            },
+            IntervalProgram.FOREVER
+        );
+        SessionSimulator late = new SessionSimulator(emom);
+        late.setLateness(50 * NANOS_PER_MILLI, 1);
+        SessionSimulator.Result result = late.run(DAY);
+
+        // The day ends on a boundary, so the last minute starts one more
+        assertTrue(result.elapsed >= DAY);
+        assertEquals(24 * 60 + 1, result.rounds);
+        assertEquals(24 * 60 + 1, result.transitions);
+        assertTrue(result.maxCueLateness < 50 * NANOS_PER_MILLI);
+    }
+
+    @Test
+    public void openingBellSoundsWithoutPrep() {
+        IntervalProgram noPrep = new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 0),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 120),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            3
+        );
+        final List<Long> times = new ArrayList<Long>();
+        final List<Cue> cues = new ArrayList<Cue>();
+        SessionSimulator simulator = new SessionSimulator(noPrep);
+        simulator.setListener(new SessionSimulator.Listener() {
+            @Override
+            public void onTransition(long time, TimerPhase phase, int round) {}
+
+            @Override
+            public void onCue(long time, Cue cue) {
+                times.add(time);
+                cues.add(cue);
+            }
+        });
+        SessionSimulator.Result result = simulator.run(DAY);
+
+        assertEquals(3, result.rounds);
+        assertEquals(0L, (long)times.get(0));
+        assertEquals(Cue.ROUND_BELL, cues.get(0));
+        assertEquals(SessionSimulator.START_DELAY, result.maxCueLateness);
+    }
+}
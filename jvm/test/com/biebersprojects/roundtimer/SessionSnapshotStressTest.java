@@ -0,0 +1,169 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * One thread drives a session the way the service does, pausing, resuming
+ * and skipping at random, while others read its snapshots as fast as they
+ * can.  Every snapshot must describe one consistent moment of the program,
+ * and no reader may see the session go backwards.
+ */
+public class SessionSnapshotStressTest {
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int STEPS = 200000;
+    private static final int READERS = 3;
+
+    @Test
+    public void readersSeeConsistentSnapshots() throws InterruptedException {
+        final IntervalProgram program = new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 5),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 3),
+                new IntervalProgram.Segment(TimerPhase.REST, 0),
+                new IntervalProgram.Segment(TimerPhase.REST, 2),
+            },
+            IntervalProgram.FOREVER
+        );
+        final SessionSimulator.VirtualClock clock =
+            new SessionSimulator.VirtualClock(0);
+        final TimerEngine engine = new TimerEngine(clock, program);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final boolean[] done = new boolean[1];
+
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    IntervalProgram.Position position =
+                        new IntervalProgram.Position();
+                    long lastEnd = Long.MIN_VALUE;
+                    long reads = 0;
+                    while (failure.get() == null) {
+                        boolean last;
+                        synchronized (done) {
+                            last = done[0];
+                        }
+                        SessionSnapshot snapshot = engine.getSnapshot();
+                        String problem = check(program, snapshot, position);
+                        long end = snapshot.getPhaseEnd() -
+                            snapshot.getOrigin();
+                        if (problem == null && end < lastEnd) {
+                            problem = "went back from " + lastEnd;
+                        }
+                        if (problem != null) {
+                            failure.compareAndSet(
+                                null,
+                                "Read " + reads + ": " + problem
+                            );
+                        }
+                        lastEnd = end;
+                        reads++;
+                        if (last) {
+                            return;
+                        }
+                    }
+                }
+            };
+            readers[i].start();
+        }
+
+        Random random = new Random(19);
+        long now = 0;
+        for (int i = 0; i < STEPS && failure.get() == null; i++) {
+            now += random.nextInt(500) * NANOS_PER_MILLI;
+            clock.set(now);
+            switch (random.nextInt(8)) {
+                case 0:
+                    engine.update();
+                    engine.pause();
+                    break;
+                case 1:
+                    engine.resume();
+                    break;
+                case 2:
+                    engine.skip();
+                    break;
+                default:
+                    engine.update();
+                    break;
+            }
+        }
+        synchronized (done) {
+            done[0] = true;
+        }
+        for (Thread reader: readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+    }
+
+    /**
+     * @return what's wrong with the snapshot, or null if it matches the
+     *         program at the moment it claims to be from
+     */
+    private static String check(
+        IntervalProgram program,
+        SessionSnapshot snapshot,
+        IntervalProgram.Position position
+    ) {
+        long end = snapshot.getPhaseEnd() - snapshot.getOrigin();
+        if (snapshot.isFinished()) {
+            return "finished a program that runs for ever";
+        }
+        // The last instant of the phase it says it's in
+        program.locate(end - 1, position);
+        boolean matches = position.end == end &&
+            position.segment == snapshot.getSegment() &&
+            position.phase == snapshot.getPhase() &&
+            position.round == snapshot.getRound();
+        if (!matches) {
+            return String.format(
+                "%s round %d segment %d ending %d, program has %s round " +
+                    "%d segment %d ending %d",
+                snapshot.getPhase(),
+                snapshot.getRound(),
+                snapshot.getSegment(),
+                end,
+                position.phase,
+                position.round,
+                position.segment,
+                position.end
+            );
+        }
+        if (snapshot.isPaused()) {
+            long elapsed = snapshot.getPausedAt() - snapshot.getOrigin();
+            program.locate(elapsed, position);
+            if (position.end != end) {
+                return "paused at " + elapsed + " outside phase ending " +
+                    end;
+            }
+        }
+        return null;
+    }
+}
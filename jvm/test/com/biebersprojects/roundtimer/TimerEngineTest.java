@@ -0,0 +1,130 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimerEngineTest {
+    private static final long NANOS_PER_SECOND = TimerEngine.NANOS_PER_SECOND;
+    private static final long POLL_NANOS = 10000000L;
+    private static final int ROUNDS = 12;
+
+    /**
+     * Sleeps between display updates for as long as the engine says, the
+     * way the display ticker does, through a 12 round boxing session.  Every
+     * wakeup must find something new to show, and there must be about one a
+     * second rather than the hundred of the old 10 ms poll.
+     */
+    @Test
+    public void wakesOncePerDisplayChange() {
+        IntervalProgram program = new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 30),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            ROUNDS
+        );
+        SessionSimulator.VirtualClock clock =
+            new SessionSimulator.VirtualClock(0);
+        TimerEngine engine = new TimerEngine(clock, program);
+
+        int wakeups = 0;
+        int phases = 0;
+        TimerPhase phase = null;
+        int round = -1;
+        int seconds = -1;
+        while (true) {
+            engine.update();
+            if (engine.isFinished()) {
+                break;
+            }
+
+            boolean newPhase = engine.getPhase() != phase ||
+                engine.getRound() != round;
+            if (newPhase) {
+                phases++;
+            } else {
+                assertEquals(
+                    "Wasted or missed a second at " + clock.nanoTime(),
+                    seconds - 1,
+                    engine.getSecondsLeft()
+                );
+            }
+            phase = engine.getPhase();
+            round = engine.getRound();
+            seconds = engine.getSecondsLeft();
+
+            long delay = engine.getNanosUntilDisplayChange();
+            assertTrue("No progress at " + clock.nanoTime(), delay > 0);
+            clock.set(clock.nanoTime() + delay);
+            wakeups++;
+        }
+
+        long length = program.getLength();
+        assertEquals(1 + 2 * ROUNDS, phases);
+        // Each phase shows its whole length counting down to zero
+        assertEquals(length / NANOS_PER_SECOND + phases, wakeups);
+        assertTrue(wakeups * 90L < length / POLL_NANOS);
+    }
+
+    @Test
+    public void skipStartsTheNextPhase() {
+        IntervalProgram program = new IntervalProgram(
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.PREP, 30),
+            },
+            new IntervalProgram.Segment[] {
+                new IntervalProgram.Segment(TimerPhase.ROUND, 180),
+                new IntervalProgram.Segment(TimerPhase.REST, 60),
+            },
+            1
+        );
+        SessionSimulator.VirtualClock clock =
+            new SessionSimulator.VirtualClock(0);
+        TimerEngine engine = new TimerEngine(clock, program);
+
+        clock.set(10 * NANOS_PER_SECOND);
+        engine.skip();
+        assertEquals(TimerPhase.ROUND, engine.getPhase());
+        assertEquals(1, engine.getRound());
+        assertEquals(180, engine.getSecondsLeft());
+        assertFalse(engine.update());
+
+        // Skipping while paused stays paused, at the start of the next phase
+        clock.set(20 * NANOS_PER_SECOND);
+        engine.update();
+        engine.pause();
+        engine.skip();
+        assertTrue(engine.isPaused());
+        assertEquals(TimerPhase.REST, engine.getPhase());
+        assertEquals(60, engine.getSecondsLeft());
+        clock.set(100 * NANOS_PER_SECOND);
+        engine.resume();
+        assertEquals(60, engine.getSecondsLeft());
+
+        engine.skip();
+        assertTrue(engine.isFinished());
+        engine.skip();
+        assertTrue(engine.isFinished());
+    }
+}
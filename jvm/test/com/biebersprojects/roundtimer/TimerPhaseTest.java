@@ -0,0 +1,80 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that any time handed to the timer, from the seekbars or from an
+ * intent, ends up as one the preset screen could have set.
+ */
+public class TimerPhaseTest {
+    @Test
+    public void snapsToTheNearestInterval() {
+        assertEquals(45, TimerPhase.PREP.clamp(50));
+        assertEquals(120, TimerPhase.ROUND.clamp(110));
+        assertEquals(60, TimerPhase.REST.clamp(60));
+    }
+
+    @Test
+    public void onlyPrepCanBeZero() {
+        assertEquals(0, TimerPhase.PREP.clamp(0));
+        assertEquals(30, TimerPhase.ROUND.clamp(0));
+        assertEquals(30, TimerPhase.REST.clamp(-60));
+    }
+
+    @Test
+    public void staysWithinTheMaximum() {
+        for (TimerPhase p: TimerPhase.values()) {
+            assertEquals(p.getMaximum(), p.clamp(Integer.MAX_VALUE));
+            assertEquals(p.getMaximum(), p.clamp(p.getMaximum()));
+        }
+    }
+
+    @Test
+    public void everyClampedProgramAdvances() {
+        for (int time = -10; time <= 400; time++) {
+            for (TimerPhase p: TimerPhase.values()) {
+                int clamped = p.clamp(time);
+                assertEquals(clamped, p.clamp(clamped));
+                assertTrue(clamped >= 0 && clamped <= p.getMaximum());
+            }
+            new IntervalProgram(
+                new IntervalProgram.Segment[] {
+                    new IntervalProgram.Segment(
+                        TimerPhase.PREP,
+                        TimerPhase.PREP.clamp(time)
+                    ),
+                },
+                new IntervalProgram.Segment[] {
+                    new IntervalProgram.Segment(
+                        TimerPhase.ROUND,
+                        TimerPhase.ROUND.clamp(time)
+                    ),
+                    new IntervalProgram.Segment(
+                        TimerPhase.REST,
+                        TimerPhase.REST.clamp(time)
+                    ),
+                },
+                IntervalProgram.FOREVER
+            );
+        }
+    }
+}
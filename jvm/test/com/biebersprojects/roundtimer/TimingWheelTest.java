@@ -0,0 +1,106 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that entries expire at their deadlines and in order, including
+ * deadlines beyond the levels' reach that have to wait in the overflow.
+ */
+public class TimingWheelTest {
+    // One nanosecond ticks put the block boundary within easy reach
+    private static final long BLOCK = 1L << 36;
+
+    private static class Recorder extends TimingWheel.Entry {
+        final long deadline;
+        final List<Long> expired;
+
+        Recorder(long deadline, List<Long> expired) {
+            this.deadline = deadline;
+            this.expired = expired;
+        }
+
+        @Override
+        protected void onExpired(long now) {
+            assertTrue("Expired early", now >= deadline);
+            expired.add(deadline);
+        }
+    }
+
+    @Test
+    public void expiresAcrossBlocksInOrder() {
+        TimingWheel wheel = new TimingWheel(0, 1);
+        List<Long> expired = new ArrayList<Long>();
+        long[] deadlines = {
+            5, BLOCK - 1, BLOCK, BLOCK + 1, 3 * BLOCK + 7, Long.MAX_VALUE / 2,
+        };
+        for (int i = deadlines.length - 1; i >= 0; i--) {
+            wheel.schedule(new Recorder(deadlines[i], expired), deadlines[i]);
+        }
+
+        assertEquals(5, wheel.nextDeadline());
+        for (long d: deadlines) {
+            assertEquals(d, wheel.nextDeadline());
+            assertEquals(1, wheel.advance(d));
+        }
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals(deadlines[i], (long)expired.get(i));
+        }
+    }
+
+    @Test
+    public void overflowWaitsUntilDue() {
+        TimingWheel wheel = new TimingWheel(0, 1);
+        List<Long> expired = new ArrayList<Long>();
+        wheel.schedule(new Recorder(2 * BLOCK, expired), 2 * BLOCK);
+
+        assertEquals(0, wheel.advance(BLOCK));
+        assertEquals(0, wheel.advance(2 * BLOCK - 1));
+        assertEquals(2 * BLOCK, wheel.nextDeadline());
+        assertEquals(1, wheel.advance(2 * BLOCK));
+    }
+
+    @Test
+    public void randomDeadlinesExpireInOrder() {
+        Random random = new Random(18);
+        TimingWheel wheel = new TimingWheel(0, 1);
+        List<Long> expired = new ArrayList<Long>();
+        for (int i = 0; i < 10000; i++) {
+            long d = (random.nextLong() >>> 1) % (4 * BLOCK);
+            wheel.schedule(new Recorder(d, expired), d);
+        }
+
+        int total = 0;
+        while (wheel.size() > 0) {
+            total += wheel.advance(wheel.nextDeadline());
+        }
+        assertEquals(10000, total);
+        for (int i = 1; i < expired.size(); i++) {
+            assertTrue(expired.get(i - 1) <= expired.get(i));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * Any number of independent stations, each running its own program, kept
+ * on one {@link TimingWheel}.  Only the wheel knows when anything next
+ * happens, so a whole circuit floor needs a single wakeup, and each phase
+ * boundary costs one expiry and one reschedule whatever the number of
+ * stations.
+ */
+public class Circuit {
+    private static final long TICK_NANOS = 1000000L;
+
+    public interface Listener {
+        void onTransition(int station, TimerEngine engine);
+    }
+
+    private class Station extends TimingWheel.Entry {
+        final int index;
+        final TimerEngine engine;
+
+        Station(int index, IntervalProgram program) {
+            this.index = index;
+            engine = new TimerEngine(clock, program);
+        }
+
+        @Override
+        protected void onExpired(long now) {
+            engine.update();
+            if (listener != null) {
+                listener.onTransition(index, engine);
+            }
+            if (!engine.isFinished()) {
+                wheel.schedule(this, engine.getPhaseEnd());
+            }
+        }
+    }
+
+    private final TimerEngine.Clock clock;
+    private final TimingWheel wheel;
+    private final Station[] stations;
+    private boolean paused = false;
+    private Listener listener = null;
+
+    /**
+     * Starts every station now.  Stations that should start later carry
+     * the delay in their program's lead-in.
+     */
+    public Circuit(TimerEngine.Clock clock, IntervalProgram[] programs) {
+        this.clock = clock;
+        wheel = new TimingWheel(clock.nanoTime(), TICK_NANOS);
+        stations = new Station[programs.length];
+        for (int i = 0; i < programs.length; i++) {
+            stations[i] = new Station(i, programs[i]);
+            stations[i].engine.update();
+            wheel.schedule(stations[i], stations[i].engine.getPhaseEnd());
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getStationCount() {
+        return stations.length;
+    }
+
+    public TimerEngine getEngine(int station) {
+        return stations[station].engine;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * When the next station boundary falls, or Long.MAX_VALUE if every
+     * station is finished or the circuit is paused.
+     */
+    public long getNextWake() {
+        return wheel.nextDeadline();
+    }
+
+    /**
+     * Moves every station whose boundary has passed on to its next phase.
+     *
+     * @return the number of boundaries handled
+     */
+    public int advance() {
+        return wheel.advance(clock.nanoTime());
+    }
+
+    public void pause() {
+        if (paused) {
+            return;
+        }
+        paused = true;
+        for (Station s: stations) {
+            s.engine.update();
+            s.engine.pause();
+            wheel.cancel(s);
+        }
+    }
+
+    public void resume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        for (Station s: stations) {
+            s.engine.resume();
+            if (!s.engine.isFinished()) {
+                wheel.schedule(s, s.engine.getPhaseEnd());
+            }
+        }
+    }
+}
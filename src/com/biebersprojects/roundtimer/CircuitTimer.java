@@ -0,0 +1,291 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.GridView;
+import android.widget.TextView;
+
+/**
+ * A circuit floor: a grid of stations, each running its own round and rest
+ * times from its own offset.  From the preset screen every station gets
+ * the selected times, spread evenly through the cycle; an intent can give
+ * each station its own with the STATION_* extras.  All stations share one
+ * {@link Circuit} and one display subscription.
+ */
+public class CircuitTimer extends Activity implements Button.OnClickListener {
+    static final String STATIONS_EXTRA =
+        "com.biebersprojects.roundtimer.STATIONS";
+    static final int DEFAULT_STATIONS = 20;
+
+    /**
+     * Optional int array extras, in seconds, giving station i the entry at
+     * i modulo the array's length.  Without rounds or rests every station
+     * runs the phase time extras; without offsets station i starts i/n of
+     * its own cycle late.
+     */
+    static final String STATION_ROUNDS_EXTRA =
+        "com.biebersprojects.roundtimer.STATION_ROUNDS";
+    static final String STATION_RESTS_EXTRA =
+        "com.biebersprojects.roundtimer.STATION_RESTS";
+    static final String STATION_OFFSETS_EXTRA =
+        "com.biebersprojects.roundtimer.STATION_OFFSETS";
+
+    private Circuit circuit = null;
+    private GridView grid = null;
+    private final StringBuilder cellText = new StringBuilder();
+
+    private final DisplayTicker.Subscriber display =
+        new DisplayTicker.Subscriber() {
+            @Override
+            public long onFrame() {
+                return updateDisplay();
+            }
+        };
+
+    private class StationAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return circuit.getStationCount();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return circuit.getEngine(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView cell = (TextView)convertView;
+            if (cell == null) {
+                cell = (TextView)LayoutInflater.from(CircuitTimer.this)
+                    .inflate(R.layout.station, parent, false);
+            }
+            bindStation(cell, position);
+            return cell;
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        MainThreadWatch.install(this);
+        setContentView(R.layout.circuit);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
+        circuit = retainedCircuit();
+        if (circuit == null) {
+            circuit = new Circuit(
+                TimerService.ELAPSED_REALTIME,
+                buildPrograms(getIntent())
+            );
+        }
+
+        grid = (GridView)findViewById(R.id.stationGrid);
+        grid.setAdapter(new StationAdapter());
+
+        Button startPauseButton = (Button)findViewById(R.id.startPauseButton);
+        startPauseButton.setOnClickListener(this);
+        updateStartPauseLabel();
+    }
+
+    /**
+     * One program per station, from the extras described above.  Times are
+     * held to what the preset screen allows, as they are for the timer.
+     */
+    private static IntervalProgram[] buildPrograms(Intent intent) {
+        int prep = TimerPhase.PREP.clamp(
+            intent.getIntExtra(
+                TimerPhase.PREP.getBundleConfigKey(),
+                TimerPhase.PREP.getDefaultTime()
+            )
+        );
+        int[] rounds =
+            stationTimes(intent, STATION_ROUNDS_EXTRA, TimerPhase.ROUND);
+        int[] rests =
+            stationTimes(intent, STATION_RESTS_EXTRA, TimerPhase.REST);
+        int[] offsets = intent.getIntArrayExtra(STATION_OFFSETS_EXTRA);
+        if (offsets != null && offsets.length == 0) {
+            offsets = null;
+        }
+        int count = Math.max(
+            intent.getIntExtra(STATIONS_EXTRA, DEFAULT_STATIONS),
+            1
+        );
+
+        IntervalProgram[] programs = new IntervalProgram[count];
+        for (int i = 0; i < count; i++) {
+            int round = rounds[i % rounds.length];
+            int rest = rests[i % rests.length];
+            int offset = offsets == null
+                ? (int)((long)(round + rest) * i / count)
+                : Math.max(offsets[i % offsets.length], 0);
+            IntervalProgram.Segment[] leadIn = {
+                new IntervalProgram.Segment(TimerPhase.PREP, prep + offset),
+            };
+            IntervalProgram.Segment[] cycle = {
+                new IntervalProgram.Segment(TimerPhase.ROUND, round),
+                new IntervalProgram.Segment(TimerPhase.REST, rest),
+            };
+            programs[i] = new IntervalProgram(
+                leadIn,
+                cycle,
+                IntervalProgram.FOREVER
+            );
+        }
+        return programs;
+    }
+
+    /**
+     * The per-station times for a phase, or the one phase time extra for
+     * every station if there are none.
+     */
+    private static int[] stationTimes(
+        Intent intent,
+        String extra,
+        TimerPhase phase
+    ) {
+        int[] times = intent.getIntArrayExtra(extra);
+        if (times == null || times.length == 0) {
+            times = new int[] {
+                intent.getIntExtra(
+                    phase.getBundleConfigKey(),
+                    phase.getDefaultTime()
+                ),
+            };
+        }
+        int[] clamped = new int[times.length];
+        for (int i = 0; i < times.length; i++) {
+            clamped[i] = phase.clamp(times[i]);
+        }
+        return clamped;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Object onRetainNonConfigurationInstance() {
+        return circuit;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Circuit retainedCircuit() {
+        return (Circuit)getLastNonConfigurationInstance();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        DisplayTicker.shared().subscribe(display);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        DisplayTicker.shared().unsubscribe(display);
+    }
+
+    @Override
+    public void onClick(View v) {
+        if (v.getId() == R.id.startPauseButton) {
+            circuit.advance();
+            if (circuit.isPaused()) {
+                circuit.resume();
+            } else {
+                circuit.pause();
+            }
+            updateStartPauseLabel();
+            DisplayTicker.shared().invalidate(display);
+        }
+    }
+
+    /**
+     * Catches the circuit up and redraws the stations on screen.
+     *
+     * @return nanoseconds until a visible station's display or any
+     *         station's phase next changes
+     */
+    private long updateDisplay() {
+        circuit.advance();
+
+        long next = Long.MAX_VALUE;
+        int first = grid.getFirstVisiblePosition();
+        for (int i = 0; i < grid.getChildCount(); i++) {
+            int station = first + i;
+            bindStation((TextView)grid.getChildAt(i), station);
+
+            TimerEngine engine = circuit.getEngine(station);
+            if (!engine.isFinished()) {
+                next = Math.min(next, engine.getNanosUntilDisplayChange());
+            }
+        }
+
+        if (circuit.isPaused()) {
+            return DisplayTicker.IDLE;
+        }
+        long wake = circuit.getNextWake();
+        if (wake != Long.MAX_VALUE) {
+            long now = TimerService.ELAPSED_REALTIME.nanoTime();
+            next = Math.min(next, Math.max(wake - now, 0));
+        }
+        return next == Long.MAX_VALUE ? DisplayTicker.IDLE : next;
+    }
+
+    private void bindStation(TextView cell, int station) {
+        TimerEngine engine = circuit.getEngine(station);
+        engine.update();
+        TimerPhase phase = engine.getPhase();
+        int seconds = engine.getSecondsLeft();
+
+        cellText.setLength(0);
+        cellText.append(station + 1).append('\n');
+        cellText.append(getText(PhaseResources.getTimerLabel(phase)));
+        cellText.append('\n');
+        cellText.append(seconds / 60).append(':');
+        cellText.append((char)('0' + seconds % 60 / 10));
+        cellText.append((char)('0' + seconds % 10));
+        cell.setText(cellText.toString());
+
+        Resources resources = getResources();
+        cell.setBackgroundColor(
+            resources.getColor(PhaseResources.getColor(phase))
+        );
+    }
+
+    private void updateStartPauseLabel() {
+        Button startPauseButton = (Button)findViewById(R.id.startPauseButton);
+        startPauseButton.setText(
+            getText(
+                circuit.isPaused() ? R.string.start_label : R.string.pause_label
+            )
+        );
+    }
+}
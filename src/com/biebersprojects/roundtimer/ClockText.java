@@ -0,0 +1,102 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * The parts of laying out {@link ClockView}'s text that don't need a
+ * canvas, kept free of Android classes so they can be benchmarked on a
+ * plain JVM.
+ */
+class ClockText {
+    private static final float PROBE_SIZE = 50;
+
+    interface Measurer {
+        /**
+         * Stores the width and height of text drawn at the given font size
+         * into bounds[0] and bounds[1].
+         */
+        void measure(String text, float fontSize, float[] bounds);
+    }
+
+    private ClockText() {}
+
+    /**
+     * Writes the countdown as MM:SS into a five character buffer.
+     */
+    static void formatTime(int secondsLeft, char[] text) {
+        int minutes = secondsLeft / 60;
+        int seconds = secondsLeft % 60;
+        text[0] = (char)('0' + minutes / 10 % 10);
+        text[1] = (char)('0' + minutes % 10);
+        text[2] = ':';
+        text[3] = (char)('0' + seconds / 10);
+        text[4] = (char)('0' + seconds % 10);
+    }
+
+    /**
+     * The largest font size at which every option fits in a box of the
+     * given size.
+     */
+    static float fitFontSize(
+        Measurer measurer,
+        float width,
+        float height,
+        String[] options
+    ) {
+        float[] bounds = new float[2];
+        int widestIndex = 0;
+        int tallestIndex = 0;
+        float maxWidth = 0;
+        float maxHeight = 0;
+
+        for (int i = 0; i < options.length; i++) {
+            measurer.measure(options[i], PROBE_SIZE, bounds);
+            if (bounds[0] > maxWidth) {
+                maxWidth = bounds[0];
+                widestIndex = i;
+            }
+            if (bounds[1] > maxHeight) {
+                maxHeight = bounds[1];
+                tallestIndex = i;
+            }
+        }
+
+        float widthRatio = width / maxWidth;
+        float heightRatio = height / maxHeight;
+        float estimate = Math.min(widthRatio, heightRatio) * PROBE_SIZE;
+        int testIndex = widthRatio < heightRatio ? widestIndex : tallestIndex;
+        String testString = options[testIndex];
+
+        // Candidate sizes are estimate - step for whole steps; bigger sizes
+        // never fit when a smaller one doesn't, so binary search for the
+        // smallest step that fits
+        int low = 0;
+        int high = Math.max((int)estimate - 1, 0);
+        while (low < high) {
+            int step = (low + high) / 2;
+            measurer.measure(testString, estimate - step, bounds);
+            if (bounds[0] <= width && bounds[1] <= height) {
+                high = step;
+            } else {
+                low = step + 1;
+            }
+        }
+        // Leave a point spare for the stroke drawn around the text
+        return estimate - low - 1;
+    }
+}
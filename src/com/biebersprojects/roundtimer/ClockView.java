@@ -18,18 +18,38 @@
 package com.biebersprojects.roundtimer;
 
 import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.graphics.*;
 import android.util.AttributeSet;
 import android.view.View;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class ClockView extends View {
     private static final float borderRatio = 0.02f;
     private static final float cornerRatio = 0.04f;
     private static final float textPaddingRatio = 0.09f;
     private static final float textInternalPaddingRatio = 0.02f;
     private static final float textStrokeRatio = 0.02f;
+    private static final float overlayTextRatio = 0.035f;
     private static final float textPhaseSplitRatio = 1/5.f;
     private static final float textRoundSplitRatio = 2/5.f;
+    private static final int fontSizeCacheCapacity = 8;
+
+    // Fitted {phase, round, time} font sizes keyed by view size and locale,
+    // shared between instances so that rotating back to a size we've
+    // already seen costs no text measurement
+    private static final Map<String, float[]> fontSizeCache =
+        new LinkedHashMap<String, float[]>(fontSizeCacheCapacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, float[]> eldest
+            ) {
+                return size() > fontSizeCacheCapacity;
+            }
+        };
 
     private RectF outerBound = new RectF();
     private Rect measuredSize = new Rect();
@@ -37,6 +57,8 @@ public class ClockView extends View {
     private RectF phaseLabelBound = new RectF();
     private RectF roundLabelBound = new RectF();
     private RectF timeLabelBound = new RectF();
+    private Rect roundDirtyBound = new Rect();
+    private Rect timeDirtyBound = new Rect();
     float phaseFontSize = 0;
     float roundFontSize = 0;
     float timeFontSize = 0;
@@ -44,6 +66,17 @@ public class ClockView extends View {
     private Paint backgroundPaint = new Paint();
     private Paint borderPaint = new Paint();
     private Paint textPaint = new Paint();
+    private Paint overlayPaint = new Paint();
+
+    private final ClockText.Measurer textMeasurer = new ClockText.Measurer() {
+        @Override
+        public void measure(String text, float fontSize, float[] bounds) {
+            textPaint.setTextSize(fontSize);
+            textPaint.getTextBounds(text, 0, text.length(), measuredSize);
+            bounds[0] = measuredSize.width();
+            bounds[1] = measuredSize.height();
+        }
+    };
 
     private static String[] timeStrings = {
         "00:00",
@@ -62,23 +95,91 @@ public class ClockView extends View {
     private int round = 0;
     private int secondsLeft = 0;
 
+    // Everything onDraw needs is prepared ahead of time so that drawing a
+    // frame allocates nothing
+    private int[] phaseColors = new int[TimerPhase.values().length];
+    private String[] phaseLabels = new String[TimerPhase.values().length];
+    private int textColor;
+    private int textStrokeColor;
+    private String roundFormat;
+    private String roundText = null;
+    private char[] timeText = {'0', '0', ':', '0', '0'};
+    private float cornerRadius = 0;
+
+    // Background, border and phase label only change with size or phase, so
+    // they're rendered once into this layer and blitted on every frame
+    private Bitmap backgroundLayer = null;
+    private Canvas backgroundCanvas = new Canvas();
+    private boolean backgroundDirty = true;
+
+    private DigitAtlas timeAtlas = null;
+
+    // Debug text drawn over the top left corner, or null for none
+    private String overlayText = null;
+    private String[] overlayLines = null;
+
     public ClockView(Context context) {
         super(context);
+        init();
     }
 
     public ClockView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        init();
     }
 
     public ClockView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        backgroundPaint.setStyle(Paint.Style.FILL);
+
+        borderPaint.setStyle(Paint.Style.STROKE);
+        borderPaint.setStrokeJoin(Paint.Join.ROUND);
+        borderPaint.setAntiAlias(true);
+
+        textPaint.setAntiAlias(true);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+
+        overlayPaint.setAntiAlias(true);
+        overlayPaint.setColor(Color.WHITE);
+        overlayPaint.setShadowLayer(1, 1, 1, Color.BLACK);
+
+        loadResources();
+        updateTimeText();
+    }
+
+    private void loadResources() {
+        Resources resources = getContext().getResources();
+        for (TimerPhase p: TimerPhase.values()) {
+            phaseColors[p.ordinal()] =
+                resources.getColor(PhaseResources.getColor(p));
+            phaseLabels[p.ordinal()] =
+                resources.getString(PhaseResources.getTimerLabel(p));
+        }
+        borderPaint.setColor(resources.getColor(R.color.border_color));
+        textColor = resources.getColor(R.color.text_color);
+        textStrokeColor = resources.getColor(R.color.text_stroke_color);
+        roundFormat = resources.getString(R.string.round_label_format);
+        updateRoundText();
+        backgroundDirty = true;
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        loadResources();
+        requestLayout();
     }
 
     public void setSecondsLeft(int secondsLeft) {
         int oldSecondsLeft = this.secondsLeft;
         this.secondsLeft = secondsLeft;
         if (secondsLeft != oldSecondsLeft) {
-            invalidate();
+            updateTimeText();
+            invalidate(timeDirtyBound);
         }
     }
 
@@ -86,6 +187,7 @@ public class ClockView extends View {
         TimerPhase oldPhase = this.phase;
         this.phase = phase;
         if (phase != oldPhase) {
+            backgroundDirty = true;
             invalidate();
         }
     }
@@ -94,10 +196,33 @@ public class ClockView extends View {
         int oldRound = this.round;
         this.round = round;
         if (round != oldRound) {
+            updateRoundText();
+            invalidate(roundDirtyBound);
+        }
+    }
+
+    /**
+     * Shows the given lines of text over the clock, or hides them if null.
+     */
+    public void setOverlayText(String text) {
+        boolean changed = text == null
+            ? overlayText != null
+            : !text.equals(overlayText);
+        if (changed) {
+            overlayText = text;
+            overlayLines = text == null ? null : text.split("\n");
             invalidate();
         }
     }
 
+    private void updateTimeText() {
+        ClockText.formatTime(secondsLeft, timeText);
+    }
+
+    private void updateRoundText() {
+        roundText = round == 0 ? null : String.format(roundFormat, round);
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         int width = MeasureSpec.getSize(widthMeasureSpec);
@@ -112,13 +237,16 @@ public class ClockView extends View {
         float roundBoundary =
             textPadding + (height - 2*textPadding)*textRoundSplitRatio;
 
-        String[] phaseLabels = new String[TimerPhase.values().length];
-        for (TimerPhase p: TimerPhase.values()) {
-            String label = getContext()
-                .getResources()
-                .getString(p.getTimerLabel());
-            phaseLabels[p.ordinal()] = label;
-        }
+        float borderThickness = borderRatio * minDim;
+        cornerRadius = cornerRatio * minDim;
+        outerBound.set(
+            borderThickness,
+            borderThickness,
+            width - borderThickness,
+            height - borderThickness
+        );
+        borderPaint.setStrokeWidth(borderThickness);
+        overlayPaint.setTextSize(minDim * overlayTextRatio);
 
         phaseLabelBound.set(
             textPadding,
@@ -126,102 +254,154 @@ public class ClockView extends View {
             width - textPadding,
             phaseBoundary - textInternalPadding / 2
         );
-        phaseFontSize = getFontSize(phaseLabelBound, textPaint, phaseLabels);
-
-        String roundFormat = getContext()
-            .getResources()
-            .getString(R.string.round_label_format);
         roundLabelBound.set(
             textPadding,
             phaseBoundary + textInternalPadding / 2,
             width - textPadding,
             roundBoundary - textInternalPadding / 2
         );
-        String [] roundLabels = {String.format(roundFormat, 999)};
-        roundFontSize = getFontSize(
-            roundLabelBound,
-            textPaint,
-            roundLabels
-        );
-
         timeLabelBound.set(
             textPadding,
             roundBoundary + textInternalPadding / 2,
             width - textPadding,
             height - textPadding
         );
-        timeFontSize = getFontSize(timeLabelBound, textPaint, timeStrings);
-    }
 
-    float getFontSize(RectF bounds, Paint paint, String[] options) {
-        paint.setTextSize(50);
-        int widestIndex = 0;
-        int tallestIndex = 0;
-        float maxWidth = 0;
-        float maxHeight = 0;
-
-        for (int i = 0; i < options.length; i++) {
-            String s = options[i];
-            paint.getTextBounds(s, 0, s.length(), measuredSize);
-            if (measuredSize.width() > maxWidth) {
-                maxWidth = measuredSize.width();
-                widestIndex = i;
-            }
-            if (measuredSize.height() > maxHeight) {
-                maxHeight = measuredSize.height();
-                tallestIndex = i;
-            }
+        // Text stroke can spill a little outside its bounds, but never as
+        // far as the padding between regions
+        int dirtyPadding = (int)(textInternalPadding / 2);
+        roundLabelBound.roundOut(roundDirtyBound);
+        roundDirtyBound.inset(-dirtyPadding, -dirtyPadding);
+        timeLabelBound.roundOut(timeDirtyBound);
+        timeDirtyBound.inset(-dirtyPadding, -dirtyPadding);
+        backgroundDirty = true;
+
+        String cacheKey = width + "x" + height + "/"
+            + getContext().getResources().getConfiguration().locale;
+        float[] fontSizes = fontSizeCache.get(cacheKey);
+        if (fontSizes == null) {
+            String [] roundLabels = {String.format(roundFormat, 999)};
+            fontSizes = new float[] {
+                fitFontSize(phaseLabelBound, phaseLabels),
+                fitFontSize(roundLabelBound, roundLabels),
+                fitFontSize(timeLabelBound, timeStrings),
+            };
+            fontSizeCache.put(cacheKey, fontSizes);
         }
+        phaseFontSize = fontSizes[0];
+        roundFontSize = fontSizes[1];
+        timeFontSize = fontSizes[2];
+    }
 
-        float widthRatio = bounds.width() / maxWidth;
-        float heightRatio = bounds.height() / maxHeight;
-        float candidateSize = Math.min(widthRatio, heightRatio) * 50;
-        int testIndex = widthRatio < heightRatio ? widestIndex : tallestIndex;
-        String testString = options[testIndex];
+    private float fitFontSize(RectF bounds, String[] options) {
+        return ClockText.fitFontSize(
+            textMeasurer,
+            bounds.width(),
+            bounds.height(),
+            options
+        );
+    }
 
-        for (boolean fits = false; !fits; candidateSize--) {
-            paint.setTextSize(candidateSize);
-            paint.getTextBounds(
-                testString,
-                0,
-                testString.length(),
-                measuredSize
-            );
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        releaseBackgroundLayer();
+        if (w > 0 && h > 0) {
+            backgroundLayer =
+                Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            backgroundCanvas.setBitmap(backgroundLayer);
+        }
+        backgroundDirty = true;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseBackgroundLayer();
+        backgroundDirty = true;
+        if (timeAtlas != null) {
+            timeAtlas.recycle();
+            timeAtlas = null;
+        }
+    }
 
-            fits = measuredSize.width() <= bounds.width() &&
-                measuredSize.height() <= bounds.height();
+    private void releaseBackgroundLayer() {
+        if (backgroundLayer != null) {
+            backgroundLayer.recycle();
+            backgroundLayer = null;
         }
-        return candidateSize;
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
-        int width = getMeasuredWidth();
-        int height = getMeasuredHeight();
-        int minDim = width < height ? width : height;
+        long started = System.nanoTime();
+        boolean rebuilt = backgroundLayer == null || backgroundDirty;
+        if (backgroundLayer == null) {
+            drawBackground(canvas);
+        } else {
+            if (backgroundDirty) {
+                backgroundLayer.eraseColor(Color.TRANSPARENT);
+                drawBackground(backgroundCanvas);
+                backgroundDirty = false;
+            }
+            canvas.drawBitmap(backgroundLayer, 0, 0, null);
+        }
 
-        float borderThickness = borderRatio * minDim;
-        float cornerRadius = cornerRatio * minDim;
-        outerBound.set(
-            borderThickness,
-            borderThickness,
-            width - borderThickness,
-            height - borderThickness
-        );
+        if (roundText != null) {
+            textPaint.setTextSize(roundFontSize);
+            textPaint.getTextBounds(
+                roundText,
+                0,
+                roundText.length(),
+                measuredSize
+            );
+            drawText(canvas, roundText, roundLabelBound);
+        }
 
-        backgroundPaint.setStyle(Paint.Style.FILL);
-        backgroundPaint.setColor(
-            getContext().getResources().getColor(phase.getColor())
+        // Only rebuilt when the fitted size or the colours change
+        boolean atlasStale = timeAtlas == null ||
+            !timeAtlas.matches(timeFontSize, textColor, textStrokeColor);
+        if (atlasStale) {
+            if (timeAtlas != null) {
+                timeAtlas.recycle();
+            }
+            timeAtlas = new DigitAtlas(
+                timeFontSize,
+                textStrokeRatio,
+                textColor,
+                textStrokeColor
+            );
+        }
+        timeAtlas.draw(
+            canvas,
+            timeText,
+            timeLabelBound.left + (timeLabelBound.width() / 2),
+            timeLabelBound.bottom -
+                (timeLabelBound.height() - timeAtlas.getTextHeight()) / 2
         );
 
-        borderPaint.setStyle(Paint.Style.STROKE);
-        borderPaint.setColor(
-            getContext().getResources().getColor(R.color.border_color)
-        );
-        borderPaint.setStrokeWidth(borderThickness);
-        borderPaint.setStrokeJoin(Paint.Join.ROUND);
-        borderPaint.setAntiAlias(true);
+        if (overlayLines != null) {
+            float lineHeight = overlayPaint.getTextSize() * 1.2f;
+            float y = outerBound.top + cornerRadius + lineHeight;
+            for (String line: overlayLines) {
+                canvas.drawText(
+                    line,
+                    outerBound.left + cornerRadius,
+                    y,
+                    overlayPaint
+                );
+                y += lineHeight;
+            }
+        }
+
+        TimingStats stats = TimingStats.shared();
+        LatencyHistogram frames =
+            rebuilt ? stats.rebuiltFrame : stats.cachedFrame;
+        frames.record(System.nanoTime() - started);
+    }
 
+    private void drawBackground(Canvas canvas) {
+        backgroundPaint.setColor(phaseColors[phase.ordinal()]);
         canvas.drawRoundRect(
             outerBound,
             cornerRadius,
@@ -235,59 +415,27 @@ public class ClockView extends View {
             borderPaint
         );
 
-        String phaseText = getContext()
-            .getResources()
-            .getString(phase.getTimerLabel());
-        drawText(canvas, phaseText, phaseFontSize, phaseLabelBound);
-
-        if (round != 0) {
-            String roundFormat = getContext()
-                .getResources()
-                .getString(R.string.round_label_format);
-            String roundText = String.format(roundFormat, round);
-            drawText(canvas, roundText, roundFontSize, roundLabelBound);
-        }
-
-        String timeText = String.format(
-            "%02d:%02d",
-            secondsLeft / 60,
-            secondsLeft % 60
-        );
-        drawText(canvas, timeText, timeFontSize, timeLabelBound);
+        String phaseText = phaseLabels[phase.ordinal()];
+        textPaint.setTextSize(phaseFontSize);
+        textPaint.getTextBounds(phaseText, 0, phaseText.length(), measuredSize);
+        drawText(canvas, phaseText, phaseLabelBound);
     }
 
-    private void drawText(
-        Canvas canvas,
-        String text,
-        float fontSize,
-        RectF bounds
-    ) {
-        textPaint.setTextSize(fontSize);
-        textPaint.setAntiAlias(true);
-        textPaint.setTextAlign(Paint.Align.CENTER);
-        textPaint.getTextBounds(text, 0, text.length(), measuredSize);
+    /**
+     * Draws text centred in bounds, using the text size already set on
+     * textPaint and the bounds already in measuredSize.
+     */
+    private void drawText(Canvas canvas, String text, RectF bounds) {
+        float x = bounds.left + (bounds.width() / 2);
+        float y = bounds.bottom - (bounds.height() - measuredSize.height()) / 2;
 
         textPaint.setStyle(Paint.Style.FILL_AND_STROKE);
         textPaint.setStrokeWidth(textStrokeRatio * measuredSize.height());
-        textPaint.setColor(
-            getContext().getResources().getColor(R.color.text_stroke_color)
-        );
-        canvas.drawText(
-            text,
-            bounds.left + (bounds.width() / 2),
-            bounds.bottom - (bounds.height() - measuredSize.height()) / 2,
-            textPaint
-        );
+        textPaint.setColor(textStrokeColor);
+        canvas.drawText(text, x, y, textPaint);
 
         textPaint.setStyle(Paint.Style.FILL);
-        textPaint.setColor(
-            getContext().getResources().getColor(R.color.text_color)
-        );
-        canvas.drawText(
-            text,
-            bounds.left + (bounds.width() / 2),
-            bounds.bottom - (bounds.height() - measuredSize.height()) / 2,
-            textPaint
-        );
+        textPaint.setColor(textColor);
+        canvas.drawText(text, x, y, textPaint);
     }
 }
@@ -0,0 +1,36 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * The sounds a session makes.  What each one sounds like is up to the
+ * {@link CueSink} playing it.
+ */
+public enum Cue {
+    ROUND_BELL,
+    REST_BELL,
+    WARNING,
+    COUNTDOWN;
+
+    /**
+     * The bell rung on entering a phase.
+     */
+    public static Cue forPhase(TimerPhase phase) {
+        return phase == TimerPhase.ROUND ? ROUND_BELL : REST_BELL;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.media.AudioManager;
+
+/**
+ * Plays cues for a whole session.  Audio focus is requested once when the
+ * session starts and held until it stops, so firing a cue is nothing more
+ * than telling an already loaded sink to play.
+ */
+public class CueEngine implements AudioManager.OnAudioFocusChangeListener {
+    private static final float DUCKED_VOLUME = 0.5f;
+
+    private final AudioManager audioManager;
+    private final CueSink sink;
+    private final int stream;
+
+    private boolean started = false;
+    private boolean muted = false;
+    private float volume = 1.0f;
+
+    public CueEngine(AudioManager audioManager, CueSink sink, int stream) {
+        this.audioManager = audioManager;
+        this.sink = sink;
+        this.stream = stream;
+    }
+
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        int gotFocus = audioManager.requestAudioFocus(
+            this,
+            stream,
+            AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK
+        );
+        muted = gotFocus != AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+    }
+
+    public void fire(Cue cue) {
+        if (started && !muted) {
+            sink.play(cue, volume);
+        }
+    }
+
+    /**
+     * Gives up audio focus if the session started.  The sink is left
+     * alone, since it belongs to whoever made it.
+     */
+    public void stop() {
+        if (started) {
+            started = false;
+            audioManager.abandonAudioFocus(this);
+        }
+    }
+
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+        switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_GAIN:
+                muted = false;
+                volume = 1.0f;
+                break;
+
+            case AudioManager.AUDIOFOCUS_LOSS:
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                muted = true;
+                break;
+
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                volume = DUCKED_VOLUME;
+                break;
+        }
+    }
+}
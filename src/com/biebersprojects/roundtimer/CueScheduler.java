@@ -0,0 +1,104 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * Decides when the service's cue alarm goes off and what to do when it
+ * does.  One cue is armed at a time, as an instant on the engine's clock;
+ * nothing is armed while the session is paused, and resuming arms the
+ * next cue again against the moved origin.  An alarm can arrive early, in
+ * which case the same cue is armed again, or late, and a cue more than
+ * MAX_LATENESS late (say after the process was stalled) is passed over
+ * rather than sounded, since sounding it then would only confuse.
+ */
+class CueScheduler {
+    static final long NO_ALARM = -1;
+    static final long MAX_LATENESS = TimerEngine.NANOS_PER_SECOND / 2;
+
+    /**
+     * What an alarm going off means for the armed cue.
+     */
+    enum Alarm {
+        /** Nothing was armed. */
+        NONE,
+        /** The cue isn't due yet; arm it again. */
+        EARLY,
+        /** The cue should sound now. */
+        DUE,
+        /** The cue is too late to sound and should be passed over. */
+        STALE
+    }
+
+    private final CueTimeline timeline;
+    private final CueTimeline.Entry armed = new CueTimeline.Entry();
+    private boolean isArmed = false;
+
+    CueScheduler(CueTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * Arms the first cue at or after the given program time.
+     *
+     * @return when the alarm should go off, on the engine's clock, or
+     *         NO_ALARM if the session is paused or has no cues left
+     */
+    long arm(TimerEngine engine, long after) {
+        isArmed = !engine.isPaused() && timeline.next(after, armed);
+        return isArmed ? engine.getOrigin() + armed.time : NO_ALARM;
+    }
+
+    /**
+     * The cue last armed.  Only meaningful while one is.
+     */
+    CueTimeline.Entry getArmed() {
+        return armed;
+    }
+
+    /**
+     * @param elapsed program time the alarm arrived at
+     */
+    Alarm onAlarm(long elapsed) {
+        if (!isArmed) {
+            return Alarm.NONE;
+        }
+        if (elapsed < armed.time) {
+            return Alarm.EARLY;
+        }
+        return elapsed - armed.time < MAX_LATENESS ? Alarm.DUE : Alarm.STALE;
+    }
+
+    /**
+     * Program time to arm from when a session starts, or carries on after
+     * the process died, at elapsed.  Starting takes a moment, so a cue at
+     * the very start (the first bell when there's no prep) would otherwise
+     * be behind the clock by the time it's armed; any cue not yet stale is
+     * still sounded.
+     */
+    static long firstAfter(long elapsed) {
+        return Math.max(0, elapsed - MAX_LATENESS);
+    }
+
+    /**
+     * Program time to arm from once the armed cue has been dealt with at
+     * elapsed: the cue after it, skipping any that are already stale.
+     */
+    long nextAfter(long elapsed) {
+        return Math.max(armed.time + 1, elapsed - MAX_LATENESS);
+    }
+}
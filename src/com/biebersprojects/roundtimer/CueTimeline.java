@@ -0,0 +1,218 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every cue an {@link IntervalProgram} calls for, laid out in program time
+ * so each one can be armed ahead of its instant instead of being noticed
+ * after the fact:
+ *
+ * <ul>
+ * <li>a bell at each boundary, announcing the phase being entered, and a
+ *     rest bell when a finite program ends</li>
+ * <li>a warning ten seconds before the end of each round</li>
+ * <li>countdown beeps three, two and one seconds before each round
+ *     starts</li>
+ * </ul>
+ *
+ * Like the program, the cues of the lead-in and of one cycle are compiled
+ * into flat arrays and the repeating cycle is handled arithmetically.
+ */
+public class CueTimeline {
+    public static final int WARNING_SECONDS = 10;
+    public static final int COUNTDOWN_SECONDS = 3;
+
+    private static final long NANOS_PER_SECOND = TimerEngine.NANOS_PER_SECOND;
+
+    public static class Entry {
+        public long time;
+        public Cue cue;
+    }
+
+    private final long[] times;
+    private final Cue[] cues;
+    private final boolean[] atCycleEnd;
+    private final int leadInCount;
+    private final long leadInLength;
+    private final long cycleLength;
+    private final int cycles;
+
+    public CueTimeline(IntervalProgram program) {
+        IntervalProgram.Segment[] leadIn = program.getLeadIn();
+        IntervalProgram.Segment[] cycle = program.getCycle();
+        cycles = program.getCycles();
+
+        leadInLength = totalLength(leadIn);
+        long length = totalLength(cycle);
+        if (length == 0) {
+            // Nothing ever happens in the cycle, so the program is over as
+            // soon as the lead-in is
+            cycle = new IntervalProgram.Segment[0];
+        }
+        cycleLength = length;
+
+        List<Long> timeList = new ArrayList<Long>();
+        List<Cue> cueList = new ArrayList<Cue>();
+        List<Boolean> cycleEndList = new ArrayList<Boolean>();
+
+        long end = 0;
+        int count = leadIn.length + cycle.length;
+        int entriesBeforeCycle = 0;
+        for (int i = 0; i < count; i++) {
+            IntervalProgram.Segment segment = segment(leadIn, cycle, i);
+            IntervalProgram.Segment next;
+            if (i + 1 < count) {
+                next = segment(leadIn, cycle, i + 1);
+            } else {
+                next = cycle.length == 0 ? null : cycle[0];
+            }
+            boolean cycleEnd = cycle.length != 0 && i == count - 1;
+            end += segment.getSeconds() * NANOS_PER_SECOND;
+
+            boolean warn = segment.getPhase() == TimerPhase.ROUND &&
+                segment.getSeconds() > WARNING_SECONDS;
+            if (warn) {
+                timeList.add(end - WARNING_SECONDS * NANOS_PER_SECOND);
+                cueList.add(Cue.WARNING);
+                cycleEndList.add(cycleEnd);
+            }
+
+            boolean roundNext = next != null &&
+                next.getPhase() == TimerPhase.ROUND;
+            if (roundNext && segment.getSeconds() > COUNTDOWN_SECONDS) {
+                for (int s = COUNTDOWN_SECONDS; s > 0; s--) {
+                    timeList.add(end - s * NANOS_PER_SECOND);
+                    cueList.add(Cue.COUNTDOWN);
+                    cycleEndList.add(cycleEnd);
+                }
+            }
+
+            // A zero-length segment gets no bell of its own; the bell at
+            // its end announces whatever follows it
+            if (next == null || next.getSeconds() > 0) {
+                timeList.add(end);
+                cueList.add(
+                    next == null
+                        ? Cue.REST_BELL
+                        : Cue.forPhase(next.getPhase())
+                );
+                cycleEndList.add(cycleEnd);
+            }
+
+            if (i == leadIn.length - 1) {
+                entriesBeforeCycle = timeList.size();
+            }
+        }
+
+        leadInCount = leadIn.length == 0 ? 0 : entriesBeforeCycle;
+        times = new long[timeList.size()];
+        cues = new Cue[times.length];
+        atCycleEnd = new boolean[times.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = timeList.get(i);
+            cues[i] = cueList.get(i);
+            atCycleEnd[i] = cycleEndList.get(i);
+        }
+    }
+
+    /**
+     * Finds the first cue at or after the given program time.
+     *
+     * @return false if the program has no more cues
+     */
+    public boolean next(long after, Entry entry) {
+        if (leadInCount > 0 && times[leadInCount - 1] >= after) {
+            int index = search(0, leadInCount, after);
+            entry.time = times[index];
+            entry.cue = cues[index];
+            return true;
+        }
+        if (leadInCount == times.length) {
+            return false;
+        }
+
+        // Cycle k covers program times (leadIn + k*length, leadIn +
+        // (k+1)*length], its last boundary being the start of the next
+        long offset = after - leadInLength;
+        long k = offset <= 0 ? 0 : (offset - 1) / cycleLength;
+        while (cycles == IntervalProgram.FOREVER || k < cycles) {
+            long base = k * cycleLength;
+            int index = search(leadInCount, times.length, after - base);
+            if (index == times.length) {
+                k++;
+                continue;
+            }
+
+            boolean lastCycle = cycles != IntervalProgram.FOREVER &&
+                k == cycles - 1;
+            boolean finalBoundary = lastCycle &&
+                atCycleEnd[index] &&
+                cues[index] != Cue.WARNING;
+            if (finalBoundary) {
+                if (cues[index] == Cue.COUNTDOWN) {
+                    // Nothing follows the last cycle, so there's nothing to
+                    // count down to
+                    after = base + times[index] + 1;
+                    continue;
+                }
+                entry.cue = Cue.REST_BELL;
+            } else {
+                entry.cue = cues[index];
+            }
+            entry.time = base + times[index];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * First entry in [from, to) at or after t, or to if there's none.
+     */
+    private int search(int from, int to, long t) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] >= t) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private static IntervalProgram.Segment segment(
+        IntervalProgram.Segment[] leadIn,
+        IntervalProgram.Segment[] cycle,
+        int i
+    ) {
+        return i < leadIn.length ? leadIn[i] : cycle[i - leadIn.length];
+    }
+
+    private static long totalLength(IntervalProgram.Segment[] segments) {
+        long length = 0;
+        for (IntervalProgram.Segment s: segments) {
+            length += s.getSeconds() * NANOS_PER_SECOND;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.graphics.*;
+
+/**
+ * The ten digits and a colon, each stroked and filled once into a cell of a
+ * single bitmap, so a countdown can be drawn by copying cells instead of
+ * shaping text on every frame.
+ */
+class DigitAtlas {
+    private static final String glyphs = "0123456789:";
+
+    private final float fontSize;
+    private final int fillColor;
+    private final int strokeColor;
+
+    private final Bitmap bitmap;
+    private final float[] advances = new float[glyphs.length()];
+    private final int[] cellLefts = new int[glyphs.length()];
+    private final int[] cellWidths = new int[glyphs.length()];
+    private final int cellHeight;
+    private final float ascent;
+    private final int padding;
+    private final int textHeight;
+
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+
+    DigitAtlas(
+        float fontSize,
+        float strokeRatio,
+        int fillColor,
+        int strokeColor
+    ) {
+        this.fontSize = fontSize;
+        this.fillColor = fillColor;
+        this.strokeColor = strokeColor;
+
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setTextSize(fontSize);
+        paint.setTextAlign(Paint.Align.LEFT);
+
+        Rect bounds = new Rect();
+        paint.getTextBounds(glyphs, 0, glyphs.length(), bounds);
+        textHeight = bounds.height();
+
+        float strokeWidth = strokeRatio * textHeight;
+        padding = (int)Math.ceil(strokeWidth) + 1;
+        ascent = paint.ascent();
+        cellHeight = (int)Math.ceil(paint.descent() - ascent) + 2 * padding;
+
+        char[] chars = glyphs.toCharArray();
+        int totalWidth = 0;
+        for (int i = 0; i < chars.length; i++) {
+            advances[i] = paint.measureText(chars, i, 1);
+            cellLefts[i] = totalWidth;
+            cellWidths[i] = (int)Math.ceil(advances[i]) + 2 * padding;
+            totalWidth += cellWidths[i];
+        }
+
+        bitmap = Bitmap.createBitmap(
+            Math.max(totalWidth, 1),
+            Math.max(cellHeight, 1),
+            Bitmap.Config.ARGB_8888
+        );
+        Canvas canvas = new Canvas(bitmap);
+        float baseline = padding - ascent;
+        for (int i = 0; i < chars.length; i++) {
+            float x = cellLefts[i] + padding;
+
+            paint.setStyle(Paint.Style.FILL_AND_STROKE);
+            paint.setStrokeWidth(strokeWidth);
+            paint.setColor(strokeColor);
+            canvas.drawText(chars, i, 1, x, baseline, paint);
+
+            paint.setStyle(Paint.Style.FILL);
+            paint.setColor(fillColor);
+            canvas.drawText(chars, i, 1, x, baseline, paint);
+        }
+    }
+
+    boolean matches(float fontSize, int fillColor, int strokeColor) {
+        return this.fontSize == fontSize &&
+            this.fillColor == fillColor &&
+            this.strokeColor == strokeColor;
+    }
+
+    /**
+     * Height of the digits' ink, as getTextBounds would report for the
+     * countdown text.
+     */
+    int getTextHeight() {
+        return textHeight;
+    }
+
+    /**
+     * Draws text made up of digits and colons horizontally centred on x,
+     * with its baseline at y.  Any other character is skipped.
+     */
+    void draw(Canvas canvas, char[] text, float x, float y) {
+        float width = 0;
+        for (char c: text) {
+            int i = indexOf(c);
+            if (i >= 0) {
+                width += advances[i];
+            }
+        }
+
+        float left = x - width / 2;
+        float top = y + ascent - padding;
+        for (char c: text) {
+            int i = indexOf(c);
+            if (i < 0) {
+                continue;
+            }
+            src.set(cellLefts[i], 0, cellLefts[i] + cellWidths[i], cellHeight);
+            dst.set(
+                left - padding,
+                top,
+                left - padding + cellWidths[i],
+                top + cellHeight
+            );
+            canvas.drawBitmap(bitmap, src, dst, null);
+            left += advances[i];
+        }
+    }
+
+    void recycle() {
+        bitmap.recycle();
+    }
+
+    private static int indexOf(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return c == ':' ? 10 : -1;
+    }
+}
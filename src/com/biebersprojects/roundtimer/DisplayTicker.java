@@ -0,0 +1,207 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives every on-screen clock in the process from the main thread.  A
+ * display subscribes while it's visible and says how long until it next
+ * needs redrawing; the ticker sleeps until the earliest of those deadlines
+ * and then updates the due displays in a Choreographer frame callback, so
+ * new values land on the next vsync.  Before API 16 the update runs as soon
+ * as the deadline passes.
+ *
+ * Nothing runs while no display is subscribed, and no thread is involved,
+ * so there's nothing to leak when an activity goes away.
+ */
+class DisplayTicker {
+    /**
+     * Returned by a subscriber that doesn't need another frame until it's
+     * invalidated.
+     */
+    static final long IDLE = -1;
+
+    interface Subscriber {
+        /**
+         * Brings the display up to date.
+         *
+         * @return nanoseconds until it needs updating again, or IDLE
+         */
+        long onFrame();
+    }
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private static DisplayTicker shared = null;
+
+    private static class Subscription {
+        final Subscriber subscriber;
+        long deadline = 0;
+
+        // When the frame was asked for on the nanosecond clock, for
+        // measuring lag, or 0 for frames wanted as soon as possible
+        long dueNanos = 0;
+
+        Subscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Subscription> subscriptions =
+        new ArrayList<Subscription>();
+    private Subscription[] due = new Subscription[0];
+    private long armedFor = NEVER;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            runFrame();
+        }
+    };
+    private final VsyncFrames vsync =
+        Build.VERSION.SDK_INT >= 16 ? new VsyncFrames(frame) : null;
+    private final Runnable wake = new Runnable() {
+        @Override
+        public void run() {
+            armedFor = NEVER;
+            if (vsync != null) {
+                vsync.post();
+            } else {
+                runFrame();
+            }
+        }
+    };
+
+    /**
+     * The ticker for the whole process.  Must be called on the main thread.
+     */
+    static DisplayTicker shared() {
+        if (shared == null) {
+            shared = new DisplayTicker();
+        }
+        return shared;
+    }
+
+    /**
+     * Starts updating a display, beginning with the next frame.  Does
+     * nothing if it's already subscribed.
+     */
+    void subscribe(Subscriber subscriber) {
+        if (find(subscriber) == null) {
+            subscriptions.add(new Subscription(subscriber));
+            arm();
+        }
+    }
+
+    void unsubscribe(Subscriber subscriber) {
+        Subscription s = find(subscriber);
+        if (s != null) {
+            subscriptions.remove(s);
+            arm();
+        }
+    }
+
+    /**
+     * Asks for a subscribed display to be updated on the next frame, say
+     * because its state changed outside the schedule it asked for.
+     */
+    void invalidate(Subscriber subscriber) {
+        Subscription s = find(subscriber);
+        if (s != null) {
+            s.deadline = 0;
+            s.dueNanos = 0;
+            arm();
+        }
+    }
+
+    private Subscription find(Subscriber subscriber) {
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription s = subscriptions.get(i);
+            if (s.subscriber == subscriber) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private void runFrame() {
+        long now = SystemClock.uptimeMillis();
+
+        // Subscribers may unsubscribe from inside onFrame, so work from a
+        // copy of the list
+        due = subscriptions.toArray(due);
+        int count = subscriptions.size();
+        for (int i = 0; i < count; i++) {
+            Subscription s = due[i];
+            due[i] = null;
+            boolean current = subscriptions.contains(s);
+            if (!current || s.deadline > now) {
+                continue;
+            }
+
+            if (s.dueNanos != 0) {
+                TimingStats.shared().schedulingLag.record(
+                    System.nanoTime() - s.dueNanos
+                );
+            }
+
+            long delay = s.subscriber.onFrame();
+            if (delay == IDLE) {
+                s.deadline = NEVER;
+                s.dueNanos = 0;
+            } else {
+                s.dueNanos = System.nanoTime() + delay;
+                s.deadline = now +
+                    (delay + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+            }
+        }
+        arm();
+    }
+
+    /**
+     * Sleeps until the earliest deadline, replacing whatever wakeup was
+     * pending.
+     */
+    private void arm() {
+        long next = NEVER;
+        for (int i = 0; i < subscriptions.size(); i++) {
+            next = Math.min(next, subscriptions.get(i).deadline);
+        }
+        if (next == armedFor) {
+            return;
+        }
+
+        handler.removeCallbacks(wake);
+        if (vsync != null) {
+            vsync.cancel();
+        }
+        armedFor = next;
+        if (next != NEVER) {
+            handler.postAtTime(wake, next);
+        }
+    }
+}
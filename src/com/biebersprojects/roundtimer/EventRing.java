@@ -0,0 +1,170 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * Session events passed from the timer core to its consumers through a
+ * pre-allocated ring.  There's one writer, and it never waits: each reader
+ * keeps its own position and drains whatever has been published, in a
+ * batch, whenever suits it.  A reader that falls a whole ring behind loses
+ * the oldest events, counted in getDropped(), rather than ever holding up
+ * the writer, so a slow disk log can't delay a bell.
+ *
+ * Each slot carries the sequence number it was last written with, set
+ * aside while the slot is being rewritten, and readers copy a slot out and
+ * check the sequence before and after; all of a slot's fields are volatile
+ * so those checks order the copy.
+ */
+class EventRing {
+    enum Type {
+        TRANSITION,
+        CUE,
+        PAUSE,
+        RESUME
+    }
+
+    /**
+     * One event as handed to a consumer.  Only valid for the duration of
+     * the call.
+     */
+    static class Event {
+        long sequence;
+        Type type;
+        long time;
+        TimerPhase phase;
+        int round;
+        Cue cue;
+    }
+
+    interface Consumer {
+        void onEvent(Event event, boolean endOfBatch);
+    }
+
+    private static class Slot {
+        volatile long sequence = -1;
+        volatile Type type;
+        volatile long time;
+        volatile TimerPhase phase;
+        volatile int round;
+        volatile Cue cue;
+
+        boolean copyTo(long expected, Event event) {
+            if (sequence != expected) {
+                return false;
+            }
+            event.sequence = expected;
+            event.type = type;
+            event.time = time;
+            event.phase = phase;
+            event.round = round;
+            event.cue = cue;
+            return sequence == expected;
+        }
+    }
+
+    /**
+     * A consumer's position in the ring.  Each reader must only be drained
+     * from one thread at a time.
+     */
+    class Reader {
+        private final Event event = new Event();
+        private long next;
+        private long dropped = 0;
+
+        private Reader(long next) {
+            this.next = next;
+        }
+
+        /**
+         * Hands every event published since the last drain to consumer.
+         *
+         * @return the number of events delivered
+         */
+        int drain(Consumer consumer) {
+            long available = cursor;
+            int delivered = 0;
+            while (next < available) {
+                if (available - next > slots.length) {
+                    // Skip to half a ring behind, so the writer doesn't
+                    // overwrite the very slots being caught up on
+                    long resume = available - slots.length / 2;
+                    dropped += resume - next;
+                    next = resume;
+                }
+
+                Slot slot = slots[(int)next & mask];
+                if (!slot.copyTo(next, event)) {
+                    // Overwritten while we looked; catch up with the writer
+                    dropped++;
+                    next++;
+                    available = cursor;
+                    continue;
+                }
+                next++;
+                delivered++;
+                consumer.onEvent(event, next == available);
+            }
+            return delivered;
+        }
+
+        long getDropped() {
+            return dropped;
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private volatile long cursor = 0;
+
+    /**
+     * @param capacity number of slots, a power of two
+     */
+    EventRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be 2^n");
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * A reader that starts with the next event published.
+     */
+    Reader newReader() {
+        return new Reader(cursor);
+    }
+
+    /**
+     * Writes an event.  Only ever called from the writer's thread.
+     */
+    void publish(Type type, long time, TimerPhase phase, int round, Cue cue) {
+        long sequence = cursor;
+        Slot slot = slots[(int)sequence & mask];
+        slot.sequence = -1;
+        slot.type = type;
+        slot.time = time;
+        slot.phase = phase;
+        slot.round = round;
+        slot.cue = cue;
+        slot.sequence = sequence;
+        cursor = sequence + 1;
+    }
+}
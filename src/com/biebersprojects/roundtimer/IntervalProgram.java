@@ -0,0 +1,235 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import java.util.Map;
+
+/**
+ * A workout made of timed segments: a lead-in played once, followed by a
+ * cycle of segments repeated a fixed number of times or forever.  Classic
+ * boxing rounds are a PREP lead-in with a ROUND, REST cycle; Tabata is the
+ * same shape with eight cycles; EMOM is a single ROUND segment cycle; a
+ * pyramid is one cycle of rounds of changing length.
+ *
+ * The program is compiled into flat arrays of segment end times, so finding
+ * the segment, round and time left at any instant is a binary search within
+ * one cycle plus a division, with no stepping and no allocation.
+ */
+public class IntervalProgram {
+    public static final int FOREVER = 0;
+
+    public static class Segment {
+        private final TimerPhase phase;
+        private final int seconds;
+
+        public Segment(TimerPhase phase, int seconds) {
+            if (seconds < 0) {
+                throw new IllegalArgumentException("Negative segment length");
+            }
+            this.phase = phase;
+            this.seconds = seconds;
+        }
+
+        public TimerPhase getPhase() {
+            return phase;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+    }
+
+    /**
+     * Where a program is at some instant.  Filled in by locate() so callers
+     * can reuse one instance.
+     */
+    public static class Position {
+        public int segment;
+        public long cycle;
+        public TimerPhase phase;
+        public int round;
+        public long start;
+        public long end;
+        public boolean finished;
+    }
+
+    private final Segment[] leadIn;
+    private final Segment[] cycle;
+    private final int cycles;
+
+    // Compiled schedule, one entry per lead-in segment then per segment of
+    // the first cycle
+    private final long[] ends;
+    private final TimerPhase[] phases;
+    private final int[] rounds;
+    private final long leadInLength;
+    private final long cycleLength;
+    private final int roundsPerCycle;
+
+    public IntervalProgram(Segment[] leadIn, Segment[] cycle, int cycles) {
+        if (cycles < 0) {
+            throw new IllegalArgumentException("Negative cycle count");
+        }
+        this.leadIn = leadIn.clone();
+        this.cycle = cycle.clone();
+        this.cycles = cycles;
+
+        int count = leadIn.length + cycle.length;
+        ends = new long[count];
+        phases = new TimerPhase[count];
+        rounds = new int[count];
+
+        long end = 0;
+        int round = 0;
+        for (int i = 0; i < count; i++) {
+            Segment s = i < leadIn.length
+                ? leadIn[i]
+                : cycle[i - leadIn.length];
+            end += s.getSeconds() * TimerEngine.NANOS_PER_SECOND;
+            if (s.getPhase() == TimerPhase.ROUND) {
+                round++;
+            }
+            ends[i] = end;
+            phases[i] = s.getPhase();
+            rounds[i] = round;
+        }
+
+        leadInLength = leadIn.length == 0 ? 0 : ends[leadIn.length - 1];
+        cycleLength = end - leadInLength;
+        int leadInRounds = leadIn.length == 0 ? 0 : rounds[leadIn.length - 1];
+        roundsPerCycle = round - leadInRounds;
+
+        if (count == 0 || (cycles == FOREVER && cycleLength == 0)) {
+            throw new IllegalArgumentException("Program never advances");
+        }
+    }
+
+    /**
+     * The classic program the timer has always run: a prep period, then
+     * rounds and rests alternating until stopped.
+     */
+    public static IntervalProgram fromTimes(Map<TimerPhase, Integer> times) {
+        return new IntervalProgram(
+            new Segment[] {
+                new Segment(TimerPhase.PREP, timeFor(times, TimerPhase.PREP)),
+            },
+            new Segment[] {
+                new Segment(TimerPhase.ROUND, timeFor(times, TimerPhase.ROUND)),
+                new Segment(TimerPhase.REST, timeFor(times, TimerPhase.REST)),
+            },
+            FOREVER
+        );
+    }
+
+    private static int timeFor(Map<TimerPhase, Integer> times, TimerPhase p) {
+        Integer time = times.get(p);
+        return time == null ? p.getDefaultTime() : time;
+    }
+
+    public Segment[] getLeadIn() {
+        return leadIn.clone();
+    }
+
+    public Segment[] getCycle() {
+        return cycle.clone();
+    }
+
+    public int getCycles() {
+        return cycles;
+    }
+
+    public boolean isFinite() {
+        return cycles != FOREVER;
+    }
+
+    /**
+     * Total length in nanoseconds, or Long.MAX_VALUE if it runs forever.
+     */
+    public long getLength() {
+        if (!isFinite()) {
+            return Long.MAX_VALUE;
+        }
+        return leadInLength + cycleLength * cycles;
+    }
+
+    /**
+     * Fills in position for the given nanoseconds since the program began.
+     */
+    public void locate(long elapsed, Position position) {
+        if (elapsed < 0) {
+            elapsed = 0;
+        }
+
+        int index;
+        long cycleIndex = 0;
+        long base = 0;
+        if (elapsed < leadInLength) {
+            index = search(0, leadIn.length, elapsed);
+        } else if (cycleLength == 0) {
+            setFinished(position);
+            return;
+        } else {
+            cycleIndex = (elapsed - leadInLength) / cycleLength;
+            if (cycles != FOREVER && cycleIndex >= cycles) {
+                setFinished(position);
+                return;
+            }
+            base = cycleIndex * cycleLength;
+            index = search(leadIn.length, ends.length, elapsed - base);
+        }
+
+        position.segment = index;
+        position.cycle = cycleIndex;
+        position.phase = phases[index];
+        position.round = rounds[index] + (int)(cycleIndex * roundsPerCycle);
+        position.start = base + (index == 0 ? 0 : ends[index - 1]);
+        position.end = base + ends[index];
+        position.finished = false;
+    }
+
+    private void setFinished(Position position) {
+        int last = ends.length - 1;
+        long cyclesRun = cycleLength == 0 ? 0 : cycles;
+        position.segment = last;
+        position.cycle = cyclesRun;
+        position.phase = phases[last];
+        position.round = rounds[last]
+            + (int)(Math.max(cyclesRun - 1, 0) * roundsPerCycle);
+        position.start = getLength();
+        position.end = position.start;
+        position.finished = true;
+    }
+
+    /**
+     * First segment in [from, to) ending after t.  The caller guarantees
+     * that the last segment in the range does.
+     */
+    private int search(int from, int to, long t) {
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] > t) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * Scheduled versus actual firing times of cues.  Totals cover every cue
+ * recorded, and the most recent ones are kept individually for the report.
+ */
+class JitterLog {
+    private static final int RECENT = 16;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final long[] scheduled = new long[RECENT];
+    private final long[] actual = new long[RECENT];
+    private long count = 0;
+    private long totalLateness = 0;
+    private long maxLateness = 0;
+
+    void record(long scheduledTime, long actualTime) {
+        int slot = (int)(count % RECENT);
+        scheduled[slot] = scheduledTime;
+        actual[slot] = actualTime;
+        count++;
+
+        long lateness = actualTime - scheduledTime;
+        totalLateness += lateness;
+        maxLateness = Math.max(maxLateness, lateness);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(
+            String.format(
+                "%d cues, mean %.2fms late, worst %.2fms late",
+                count,
+                count == 0 ? 0 : totalLateness / NANOS_PER_MILLI / count,
+                maxLateness / NANOS_PER_MILLI
+            )
+        );
+
+        long first = Math.max(count - RECENT, 0);
+        for (long i = first; i < count; i++) {
+            int slot = (int)(i % RECENT);
+            report.append(
+                String.format(
+                    "\n  scheduled %.3fs, fired %.3fs (+%.2fms)",
+                    scheduled[slot] / NANOS_PER_MILLI / 1000,
+                    actual[slot] / NANOS_PER_MILLI / 1000,
+                    (actual[slot] - scheduled[slot]) / NANOS_PER_MILLI
+                )
+            );
+        }
+        return report.toString();
+    }
+}
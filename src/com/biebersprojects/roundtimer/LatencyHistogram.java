@@ -0,0 +1,135 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * Counts latencies in logarithmic buckets of whole microseconds: each
+ * power of two is split into four, so a bucket is never wider than a
+ * quarter of its lower bound.  Memory is fixed however many values are
+ * recorded, and recording is a few instructions plus an uncontended lock.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUBS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUBS;
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final String name;
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Negative latencies, from a callback that ran early, count as zero.
+     */
+    synchronized void record(long nanos) {
+        long micros = Math.max(nanos, 0) / NANOS_PER_MICRO;
+        counts[bucketOf(micros)]++;
+        count++;
+        total += micros;
+        max = Math.max(max, micros);
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * The largest value recorded, in microseconds.
+     */
+    synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Upper bound in microseconds of the bucket holding the given fraction
+     * of values, or 0 with nothing recorded.
+     */
+    synchronized long getPercentile(double fraction) {
+        long wanted = (long)Math.ceil(count * fraction);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= wanted && seen > 0) {
+                return Math.min(lowerBound(b + 1) - 1, max);
+            }
+        }
+        return 0;
+    }
+
+    synchronized void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * One line of summary, then a line per non-empty bucket giving its
+     * range in microseconds and its count.
+     */
+    synchronized void appendTo(StringBuilder out) {
+        out.append(name).append(": ").append(count).append(" samples");
+        if (count > 0) {
+            out.append(", mean ").append(total / count);
+            out.append(" us, p50 ").append(getPercentile(0.5));
+            out.append(" us, p99 ").append(getPercentile(0.99));
+            out.append(" us, max ").append(max).append(" us");
+        }
+        out.append('\n');
+        for (int b = 0; b < BUCKETS; b++) {
+            if (counts[b] != 0) {
+                out.append("  ").append(lowerBound(b));
+                out.append('-').append(lowerBound(b + 1) - 1);
+                out.append('\t').append(counts[b]).append('\n');
+            }
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUBS) {
+            return (int)micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int)(micros >>> (exponent - SUB_BITS)) & (SUBS - 1);
+        return (exponent - SUB_BITS + 1) * SUBS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUBS) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = bucket / SUBS + SUB_BITS - 1;
+        int sub = bucket % SUBS;
+        return (1L << exponent) | ((long)sub << (exponent - SUB_BITS));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.util.Log;
+import android.util.Printer;
+
+/**
+ * Keeps an eye on the main thread in debuggable builds.  The main looper
+ * reports each message it dispatches, which covers every activity, view
+ * and handler callback, so each one is timed into {@link TimingStats} and
+ * any that runs over budget is logged with the handler and callback it
+ * went to.  Disk and network access on the main thread is flagged by
+ * StrictMode where the platform has it.
+ *
+ * The budget is the integer resource main_thread_budget_ms.  Overruns are
+ * only ever logged, since the watch runs inside the looper and must not
+ * take the app down; the instrumentation tests script the screens and
+ * assert on the recorded callback times instead.
+ */
+class MainThreadWatch implements Printer {
+    private static final String TAG = "roundtimer";
+    private static final String DISPATCHING = ">>>>> Dispatching to ";
+    private static final String FINISHED = "<<<<< Finished to ";
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private static boolean installed = false;
+
+    private final long budgetNanos;
+    private long dispatched = 0;
+
+    private MainThreadWatch(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * The longest a main thread callback should take.
+     */
+    static long getBudgetNanos(Context context) {
+        int millis = context.getResources()
+            .getInteger(R.integer.main_thread_budget_ms);
+        return millis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Starts watching if this is a debuggable build.  Call from the main
+     * thread; only the first call does anything.
+     */
+    static void install(Context context) {
+        if (installed) {
+            return;
+        }
+        installed = true;
+
+        int flags = context.getApplicationInfo().flags;
+        if ((flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= 9) {
+            StrictMode.setThreadPolicy(
+                new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build()
+            );
+        }
+        Looper.getMainLooper().setMessageLogging(
+            new MainThreadWatch(getBudgetNanos(context))
+        );
+    }
+
+    @Override
+    public void println(String x) {
+        if (x.startsWith(DISPATCHING)) {
+            dispatched = System.nanoTime();
+        } else if (x.startsWith(FINISHED) && dispatched != 0) {
+            long time = System.nanoTime() - dispatched;
+            dispatched = 0;
+            TimingStats.shared().callbackTime.record(time);
+            if (time > budgetNanos) {
+                Log.w(TAG, "Main thread callback took "
+                    + (time / NANOS_PER_MILLI) + "ms, budget "
+                    + (budgetNanos / NANOS_PER_MILLI) + "ms: "
+                    + x.substring(FINISHED.length()));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * The strings and colours shown for each {@link TimerPhase}, kept out of
+ * the enum so the timing code doesn't need Android's generated resources.
+ */
+class PhaseResources {
+    private PhaseResources() {}
+
+    /**
+     * Label for the phase's time on the selection screen.
+     */
+    static int getInputLabel(TimerPhase phase) {
+        switch (phase) {
+            case PREP:
+                return R.string.prep_time_input_label;
+            case ROUND:
+                return R.string.round_time_input_label;
+            default:
+                return R.string.rest_time_input_label;
+        }
+    }
+
+    /**
+     * Label shown on the clock during the phase.
+     */
+    static int getTimerLabel(TimerPhase phase) {
+        switch (phase) {
+            case PREP:
+                return R.string.prep_time_timer_label;
+            case ROUND:
+                return R.string.round_time_timer_label;
+            default:
+                return R.string.rest_time_timer_label;
+        }
+    }
+
+    static int getColor(TimerPhase phase) {
+        switch (phase) {
+            case PREP:
+                return R.color.prep_color;
+            case ROUND:
+                return R.color.round_color;
+            default:
+                return R.color.rest_color;
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package com.biebersprojects.roundtimer;
 
-import android.content.Context;
-import android.content.res.Resources;
-
 import java.io.Serializable;
 import java.util.*;
 
 public class Preset implements Comparable<Preset>, Serializable {
+    // Pinned to the value the original class was serialized with, so a
+    // library saved in the legacy format can still be read for migration
+    private static final long serialVersionUID = 4127681292587527878L;
+
     private String name;
     private Map<TimerPhase, Integer> times;
 
@@ -23,57 +24,12 @@ public class Preset implements Comparable<Preset>, Serializable {
         return times;
     }
 
-    public String toString() {
-        return name;
+    public IntervalProgram toProgram() {
+        return IntervalProgram.fromTimes(times);
     }
 
-    public static List<Preset> defaultSet(Context context) {
-        Resources resources = context.getResources();
-
-        Map<TimerPhase, Integer> boxingProTimes =
-            new HashMap<TimerPhase, Integer>();
-        boxingProTimes.put(TimerPhase.PREP, 30);
-        boxingProTimes.put(TimerPhase.ROUND, 180);
-        boxingProTimes.put(TimerPhase.REST, 60);
-
-        Map<TimerPhase, Integer> boxingAmateurTimes =
-            new HashMap<TimerPhase, Integer>();
-        boxingAmateurTimes.put(TimerPhase.PREP, 30);
-        boxingAmateurTimes.put(TimerPhase.ROUND, 120);
-        boxingAmateurTimes.put(TimerPhase.REST, 60);
-
-        Map<TimerPhase, Integer> mmaProTimes =
-            new HashMap<TimerPhase, Integer>();
-        mmaProTimes.put(TimerPhase.PREP, 30);
-        mmaProTimes.put(TimerPhase.ROUND, 300);
-        mmaProTimes.put(TimerPhase.REST, 60);
-
-        Map<TimerPhase, Integer> mmaAmateurTimes =
-            new HashMap<TimerPhase, Integer>();
-        mmaAmateurTimes.put(TimerPhase.PREP, 30);
-        mmaAmateurTimes.put(TimerPhase.ROUND, 180);
-        mmaAmateurTimes.put(TimerPhase.REST, 60);
-
-        return new ArrayList<Preset>(
-            Arrays.asList(
-                new Preset(
-                    resources.getString(R.string.boxing_pro),
-                    boxingProTimes
-                ),
-                new Preset(
-                    resources.getString(R.string.boxing_amateur),
-                    boxingAmateurTimes
-                ),
-                new Preset(
-                    resources.getString(R.string.mma_pro),
-                    mmaProTimes
-                ),
-                new Preset(
-                    resources.getString(R.string.mma_amateur),
-                    mmaAmateurTimes
-                )
-            )
-        );
+    public String toString() {
+        return name;
     }
 
     @Override
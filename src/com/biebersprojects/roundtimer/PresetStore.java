@@ -0,0 +1,234 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the preset library in a compact binary format:
+ *
+ * <pre>
+ * header:  int magic, short version, short phase count, int preset count,
+ *          int string table length
+ * strings: per preset, short byte length then the UTF-8 name
+ * records: per preset, int name offset into the string table, one int of
+ *          seconds per phase in ordinal order, then an int CRC-32 over the
+ *          name bytes and the preceding ints of the record
+ * </pre>
+ *
+ * A record whose checksum doesn't match is dropped without losing the rest
+ * of the library.
+ */
+class PresetStore {
+    static final int MAGIC = 0x52545053;
+    static final short VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final String UTF8 = "UTF-8";
+
+    private PresetStore() {}
+
+    static List<Preset> read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad preset file size " + size);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int)size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+            buffer.flip();
+            return decode(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces file with the given presets.  The data is written and synced
+     * to a temporary file which is then renamed over the original, so a
+     * crash part way through leaves the previous library intact.
+     */
+    static void write(File file, List<Preset> presets) throws IOException {
+        ByteBuffer buffer = encode(presets);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    static ByteBuffer encode(List<Preset> presets) throws IOException {
+        TimerPhase[] phases = TimerPhase.values();
+        byte[][] names = new byte[presets.size()][];
+        int stringTableSize = 0;
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = presets.get(i).getName().getBytes(UTF8);
+            if (name.length > 0xffff) {
+                byte[] truncated = new byte[0xffff];
+                System.arraycopy(name, 0, truncated, 0, truncated.length);
+                name = truncated;
+            }
+            names[i] = name;
+            stringTableSize += 2 + name.length;
+        }
+
+        int recordSize = recordSize(phases.length);
+        ByteBuffer buffer = ByteBuffer.allocate(
+            HEADER_SIZE + stringTableSize + recordSize * names.length
+        );
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short)phases.length);
+        buffer.putInt(names.length);
+        buffer.putInt(stringTableSize);
+
+        int[] nameOffsets = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nameOffsets[i] = buffer.position() - HEADER_SIZE;
+            buffer.putShort((short)names[i].length);
+            buffer.put(names[i]);
+        }
+
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < names.length; i++) {
+            int recordStart = buffer.position();
+            buffer.putInt(nameOffsets[i]);
+            Map<TimerPhase, Integer> times = presets.get(i).getTimes();
+            for (TimerPhase p: phases) {
+                Integer time = times.get(p);
+                buffer.putInt(time == null ? p.getDefaultTime() : time);
+            }
+
+            crc.reset();
+            crc.update(names[i]);
+            crc.update(buffer.array(), recordStart, recordSize - 4);
+            buffer.putInt((int)crc.getValue());
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    static List<Preset> decode(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a preset file");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported preset file version " + version);
+        }
+
+        int phaseCount = buffer.getShort();
+        int presetCount = buffer.getInt();
+        int stringTableSize = buffer.getInt();
+        int recordSize = recordSize(phaseCount);
+        long expectedSize = (long)presetCount * recordSize + stringTableSize;
+        boolean valid = phaseCount >= 0 &&
+            presetCount >= 0 &&
+            stringTableSize >= 0 &&
+            expectedSize == buffer.remaining();
+        if (!valid) {
+            throw new IOException("Truncated preset file");
+        }
+
+        int stringTableStart = buffer.position();
+        int recordsStart = stringTableStart + stringTableSize;
+        TimerPhase[] phases = TimerPhase.values();
+        byte[] bytes = buffer.array();
+        CRC32 crc = new CRC32();
+
+        List<Preset> presets = new ArrayList<Preset>(presetCount);
+        for (int i = 0; i < presetCount; i++) {
+            int recordStart = recordsStart + i * recordSize;
+            int nameOffset = buffer.getInt(recordStart);
+            if (nameOffset < 0 || nameOffset + 2 > stringTableSize) {
+                continue;
+            }
+            int nameStart = stringTableStart + nameOffset + 2;
+            int nameLength = buffer.getShort(nameStart - 2) & 0xffff;
+            if (nameStart + nameLength > recordsStart) {
+                continue;
+            }
+
+            crc.reset();
+            crc.update(bytes, nameStart, nameLength);
+            crc.update(bytes, recordStart, recordSize - 4);
+            int storedCrc = buffer.getInt(recordStart + recordSize - 4);
+            if ((int)crc.getValue() != storedCrc) {
+                continue;
+            }
+
+            // Phases added since the file was written keep their defaults,
+            // and any the app no longer knows about are ignored
+            Map<TimerPhase, Integer> times =
+                new HashMap<TimerPhase, Integer>();
+            for (TimerPhase p: phases) {
+                int time = p.ordinal() < phaseCount
+                    ? buffer.getInt(recordStart + 4 + 4 * p.ordinal())
+                    : p.getDefaultTime();
+                times.put(p, time);
+            }
+            String name = new String(bytes, nameStart, nameLength, UTF8);
+            presets.add(new Preset(name, times));
+        }
+        return presets;
+    }
+
+    /**
+     * Reads a library written by the old Java serialization format.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Preset> readLegacy(InputStream in) throws IOException {
+        ObjectInput oin = new ObjectInputStream(in);
+        try {
+            return (List<Preset>)oin.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.toString());
+        } catch (ClassCastException e) {
+            throw new IOException(e.toString());
+        } finally {
+            oin.close();
+        }
+    }
+
+    private static int recordSize(int phaseCount) {
+        return 4 + 4 * phaseCount + 4;
+    }
+}
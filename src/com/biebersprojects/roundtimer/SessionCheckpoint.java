@@ -0,0 +1,326 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * The running session, kept in a small memory-mapped file so it outlives
+ * the process.  Stores go straight into the page cache, so a checkpoint is
+ * a handful of puts with no system call, and the kernel still has the data
+ * if the process is killed a moment later.  The layout is fixed:
+ *
+ * <pre>
+ *   0  int magic
+ *   4  int version
+ *   8  long, long boot id
+ *  24  long origin, long paused at, int paused
+ *  44  int segment, int round, long phase end
+ *  60  int cycles, int lead-in segments, int cycle segments
+ *  72  MAX_SEGMENTS pairs of int phase ordinal, int seconds
+ * 328  int CRC-32 over everything before it
+ * </pre>
+ *
+ * Instants are on {@link TimerService#ELAPSED_REALTIME}, which restarts
+ * from zero at boot, so a checkpoint written before the last reboot is
+ * ignored.  The segment, round and phase end only record where the
+ * session was; on restore the position is worked out again from the
+ * clock.
+ */
+class SessionCheckpoint {
+    static final String FILE_NAME = "session.checkpoint";
+    static final int MAGIC = 0x52545343;
+    static final int VERSION = 1;
+    static final int MAX_SEGMENTS = 32;
+
+    private static final int BOOT_ID_OFFSET = 8;
+    private static final int STATE_OFFSET = 24;
+    private static final int POSITION_OFFSET = 44;
+    private static final int PROGRAM_OFFSET = 60;
+    private static final int SEGMENTS_OFFSET = 72;
+    private static final int CRC_OFFSET = SEGMENTS_OFFSET + MAX_SEGMENTS * 8;
+    static final int SIZE = CRC_OFFSET + 4;
+
+    private static final String BOOT_ID_PATH =
+        "/proc/sys/kernel/random/boot_id";
+
+    /**
+     * A session read back from a checkpoint.
+     */
+    static class Session {
+        final IntervalProgram program;
+        final long origin;
+        final boolean paused;
+        final long pausedAt;
+
+        Session(
+            IntervalProgram program,
+            long origin,
+            boolean paused,
+            long pausedAt
+        ) {
+            this.program = program;
+            this.origin = origin;
+            this.paused = paused;
+            this.pausedAt = pausedAt;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final UUID bootId = readBootId();
+    private final CRC32 crc = new CRC32();
+    private final byte[] crcBytes = new byte[CRC_OFFSET];
+
+    private IntervalProgram writtenProgram = null;
+
+    private SessionCheckpoint(RandomAccessFile file) throws IOException {
+        this.file = file;
+        buffer = file.getChannel()
+            .map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+    }
+
+    /**
+     * Maps the checkpoint file, creating it if needed.
+     */
+    static SessionCheckpoint open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return new SessionCheckpoint(raf);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a checkpoint without mapping it, for a quick look at launch.
+     *
+     * @return the session, or null if there's none still running at now
+     */
+    static Session read(File file, long now) {
+        if (file.length() != SIZE) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                ByteBuffer data = ByteBuffer.allocate(SIZE);
+                FileChannel channel = in.getChannel();
+                while (data.hasRemaining()) {
+                    if (channel.read(data) < 0) {
+                        return null;
+                    }
+                }
+                return decode(data, readBootId(), now);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the engine's state.  Called at every phase boundary and on
+     * pause and resume.
+     */
+    void save(TimerEngine engine) {
+        buffer.putInt(0, 0);
+        if (bootId != null) {
+            long high = bootId.getMostSignificantBits();
+            long low = bootId.getLeastSignificantBits();
+            buffer.putLong(BOOT_ID_OFFSET, high);
+            buffer.putLong(BOOT_ID_OFFSET + 8, low);
+        }
+
+        buffer.putLong(STATE_OFFSET, engine.getOrigin());
+        buffer.putLong(STATE_OFFSET + 8, engine.getPausedAt());
+        buffer.putInt(STATE_OFFSET + 16, engine.isPaused() ? 1 : 0);
+        buffer.putInt(POSITION_OFFSET, engine.getSegment());
+        buffer.putInt(POSITION_OFFSET + 4, engine.getRound());
+        buffer.putLong(POSITION_OFFSET + 8, engine.getPhaseEnd());
+
+        // The program only changes when a new session starts
+        IntervalProgram program = engine.getProgram();
+        if (program != writtenProgram) {
+            putProgram(program);
+            writtenProgram = program;
+        }
+
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CRC_OFFSET, checksum(buffer, crcBytes, crc));
+        buffer.putInt(0, MAGIC);
+    }
+
+    /**
+     * @return the session, or null if there's none still running at now
+     */
+    Session load(long now) {
+        return decode(buffer, bootId, now);
+    }
+
+    /**
+     * Marks the session as over.
+     */
+    void clear() {
+        buffer.putInt(0, 0);
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    private void putProgram(IntervalProgram program) {
+        IntervalProgram.Segment[] leadIn = program.getLeadIn();
+        IntervalProgram.Segment[] cycle = program.getCycle();
+        if (leadIn.length + cycle.length > MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Too many segments");
+        }
+
+        buffer.putInt(PROGRAM_OFFSET, program.getCycles());
+        buffer.putInt(PROGRAM_OFFSET + 4, leadIn.length);
+        buffer.putInt(PROGRAM_OFFSET + 8, cycle.length);
+        int offset = SEGMENTS_OFFSET;
+        for (IntervalProgram.Segment s: leadIn) {
+            offset = putSegment(offset, s);
+        }
+        for (IntervalProgram.Segment s: cycle) {
+            offset = putSegment(offset, s);
+        }
+    }
+
+    private int putSegment(int offset, IntervalProgram.Segment segment) {
+        buffer.putInt(offset, segment.getPhase().ordinal());
+        buffer.putInt(offset + 4, segment.getSeconds());
+        return offset + 8;
+    }
+
+    private static int checksum(ByteBuffer data, byte[] scratch, CRC32 crc) {
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            scratch[i] = data.get(i);
+        }
+        // The magic is written last, so it's checksummed as it will be
+        scratch[0] = (byte)(MAGIC >>> 24);
+        scratch[1] = (byte)(MAGIC >>> 16);
+        scratch[2] = (byte)(MAGIC >>> 8);
+        scratch[3] = (byte)MAGIC;
+        crc.reset();
+        crc.update(scratch, 0, CRC_OFFSET);
+        return (int)crc.getValue();
+    }
+
+    private static Session decode(ByteBuffer data, UUID bootId, long now) {
+        boolean valid = data.getInt(0) == MAGIC &&
+            data.getInt(4) == VERSION &&
+            data.getInt(CRC_OFFSET) ==
+                checksum(data, new byte[CRC_OFFSET], new CRC32());
+        if (!valid) {
+            return null;
+        }
+
+        boolean sameBoot = bootId == null || (
+            data.getLong(BOOT_ID_OFFSET) == bootId.getMostSignificantBits() &&
+            data.getLong(BOOT_ID_OFFSET + 8) == bootId.getLeastSignificantBits()
+        );
+        long origin = data.getLong(STATE_OFFSET);
+        long pausedAt = data.getLong(STATE_OFFSET + 8);
+        boolean paused = data.getInt(STATE_OFFSET + 16) != 0;
+        if (!sameBoot || now < origin || (paused && pausedAt > now)) {
+            return null;
+        }
+
+        IntervalProgram program;
+        try {
+            program = decodeProgram(data);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        long elapsed = (paused ? pausedAt : now) - origin;
+        if (elapsed >= program.getLength()) {
+            return null;
+        }
+        return new Session(program, origin, paused, pausedAt);
+    }
+
+    private static IntervalProgram decodeProgram(ByteBuffer data) {
+        int cycles = data.getInt(PROGRAM_OFFSET);
+        int leadInCount = data.getInt(PROGRAM_OFFSET + 4);
+        int cycleCount = data.getInt(PROGRAM_OFFSET + 8);
+        boolean fits = leadInCount >= 0 &&
+            cycleCount >= 0 &&
+            leadInCount + cycleCount <= MAX_SEGMENTS;
+        if (!fits) {
+            throw new IllegalArgumentException("Bad segment counts");
+        }
+
+        IntervalProgram.Segment[] leadIn =
+            new IntervalProgram.Segment[leadInCount];
+        IntervalProgram.Segment[] cycle =
+            new IntervalProgram.Segment[cycleCount];
+        int offset = SEGMENTS_OFFSET;
+        for (int i = 0; i < leadIn.length; i++, offset += 8) {
+            leadIn[i] = decodeSegment(data, offset);
+        }
+        for (int i = 0; i < cycle.length; i++, offset += 8) {
+            cycle[i] = decodeSegment(data, offset);
+        }
+        return new IntervalProgram(leadIn, cycle, cycles);
+    }
+
+    private static IntervalProgram.Segment decodeSegment(
+        ByteBuffer data,
+        int offset
+    ) {
+        TimerPhase[] phases = TimerPhase.values();
+        int phase = data.getInt(offset);
+        if (phase < 0 || phase >= phases.length) {
+            throw new IllegalArgumentException("Bad phase " + phase);
+        }
+        return new IntervalProgram.Segment(
+            phases[phase],
+            data.getInt(offset + 4)
+        );
+    }
+
+    /**
+     * The kernel's random id for this boot, or null if it can't be read,
+     * in which case only the clock is used to spot a reboot.
+     */
+    private static UUID readBootId() {
+        try {
+            BufferedReader in =
+                new BufferedReader(new FileReader(BOOT_ID_PATH));
+            try {
+                String line = in.readLine();
+                return line == null ? null : UUID.fromString(line.trim());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
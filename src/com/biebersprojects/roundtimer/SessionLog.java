@@ -0,0 +1,107 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends the session's events to a tab-separated text file, one line per
+ * event: program time in seconds, event type, phase, round and cue.  The
+ * log reads the {@link EventRing} on the background writer, so a burst of
+ * events becomes a single append some time after the fact, well away from
+ * the cues themselves.
+ */
+class SessionLog implements EventRing.Consumer {
+    static final String FILE_NAME = "session.log";
+
+    private static final String TAG = "roundtimer";
+    private static final String WRITE_KEY = "SESSION_LOG";
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final File file;
+    private final EventRing.Reader reader;
+    private final StringBuilder lines = new StringBuilder();
+    private boolean append;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param append false to start the file afresh on the first write
+     */
+    SessionLog(File file, EventRing events, boolean append) {
+        this.file = file;
+        this.reader = events.newReader();
+        this.append = append;
+    }
+
+    /**
+     * Asks for the events published so far to be written.  Cheap enough to
+     * call after every event; calls close together share one write.
+     */
+    void requestWrite() {
+        WriteBehind.shared().post(WRITE_KEY, drain);
+    }
+
+    @Override
+    public void onEvent(EventRing.Event event, boolean endOfBatch) {
+        long millis = event.time / NANOS_PER_MILLI;
+        lines.append(millis / 1000).append('.');
+        lines.append((char)('0' + millis / 100 % 10));
+        lines.append((char)('0' + millis / 10 % 10));
+        lines.append((char)('0' + millis % 10)).append('\t');
+        lines.append(event.type).append('\t');
+        lines.append(event.phase).append('\t');
+        lines.append(event.round).append('\t');
+        lines.append(event.cue == null ? "-" : event.cue.name()).append('\n');
+    }
+
+    private void drain() {
+        long dropped = reader.getDropped();
+        reader.drain(this);
+        if (reader.getDropped() != dropped) {
+            lines.append("# dropped ")
+                .append(reader.getDropped() - dropped)
+                .append('\n');
+        }
+        if (lines.length() == 0) {
+            return;
+        }
+
+        try {
+            FileOutputStream out = new FileOutputStream(file, append);
+            try {
+                out.write(lines.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            append = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write the session log", e);
+        }
+        lines.setLength(0);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import java.util.Random;
+
+/**
+ * Fast-forwards whole sessions on a virtual clock, without Android and
+ * without waiting.  The simulator drives a real {@link TimerEngine} and
+ * {@link CueTimeline} exactly as the service and display do: sleep until
+ * the next boundary or cue, wake (optionally late), update.  Every phase
+ * transition and cue is reported to a listener, and each transition is
+ * checked against boundaries summed independently from the program's
+ * segments, so any cumulative drift or miscounted round fails the run.
+ * The first cue is armed a moment after the session starts, as the
+ * service arms it.
+ */
+public class SessionSimulator {
+    private static final long NANOS_PER_SECOND = TimerEngine.NANOS_PER_SECOND;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    // How long after the engine starts the service gets to arm a cue
+    static final long START_DELAY = NANOS_PER_MILLI;
+
+    public interface Listener {
+        void onTransition(long time, TimerPhase phase, int round);
+
+        void onCue(long time, Cue cue);
+    }
+
+    /**
+     * A clock that only moves when told to.
+     */
+    public static class VirtualClock implements TimerEngine.Clock {
+        private long now;
+
+        public VirtualClock(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        public void set(long now) {
+            if (now < this.now) {
+                throw new IllegalArgumentException("Clock can't go back");
+            }
+            this.now = now;
+        }
+    }
+
+    public static class Result {
+        public final long elapsed;
+        public final int transitions;
+        public final int cues;
+        public final int rounds;
+        public final long maxCueLateness;
+
+        Result(
+            long elapsed,
+            int transitions,
+            int cues,
+            int rounds,
+            long maxCueLateness
+        ) {
+            this.elapsed = elapsed;
+            this.transitions = transitions;
+            this.cues = cues;
+            this.rounds = rounds;
+            this.maxCueLateness = maxCueLateness;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%.1f h simulated, %d transitions, %d rounds, %d cues, " +
+                    "latest cue %.3f ms",
+                elapsed / (3600.0 * NANOS_PER_SECOND),
+                transitions,
+                rounds,
+                cues,
+                maxCueLateness / (double)NANOS_PER_MILLI
+            );
+        }
+    }
+
+    /**
+     * Walks the program's segments by plain addition, as the reference the
+     * engine is checked against.
+     */
+    private static class Oracle {
+        private final IntervalProgram.Segment[] leadIn;
+        private final IntervalProgram.Segment[] cycle;
+        private final int cycles;
+
+        private int index = -1;
+        private long cycleNumber = 0;
+        IntervalProgram.Segment segment = null;
+        long start = 0;
+        long end = 0;
+        int round = 0;
+        int transitions = 0;
+
+        Oracle(IntervalProgram program) {
+            leadIn = program.getLeadIn();
+            cycle = program.getCycle();
+            cycles = program.getCycles();
+        }
+
+        /**
+         * Steps to the segment running at the given time, skipping empty
+         * ones the way the engine does.
+         *
+         * @return false once the program is over
+         */
+        boolean advanceTo(long time) {
+            while (segment == null || end <= time) {
+                if (!step()) {
+                    return false;
+                }
+                if (segment.getSeconds() > 0) {
+                    transitions++;
+                }
+            }
+            return true;
+        }
+
+        private boolean step() {
+            index++;
+            if (index == leadIn.length + cycle.length) {
+                if (cycle.length == 0) {
+                    return false;
+                }
+                index = leadIn.length;
+                cycleNumber++;
+            }
+            boolean over = index >= leadIn.length &&
+                cycles != IntervalProgram.FOREVER &&
+                cycleNumber >= cycles;
+            if (over || index >= leadIn.length + cycle.length) {
+                return false;
+            }
+
+            segment = index < leadIn.length
+                ? leadIn[index]
+                : cycle[index - leadIn.length];
+            start = end;
+            end += segment.getSeconds() * NANOS_PER_SECOND;
+            if (segment.getPhase() == TimerPhase.ROUND) {
+                round++;
+            }
+            return true;
+        }
+    }
+
+    private final IntervalProgram program;
+    private Listener listener = null;
+    private long maxLateness = 0;
+    private Random random = null;
+
+    public SessionSimulator(IntervalProgram program) {
+        this.program = program;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Makes every wakeup late by a random amount up to maxLateness, as a
+     * busy main thread would.  Boundaries must stay exact regardless.
+     */
+    public void setLateness(long maxLateness, long seed) {
+        this.maxLateness = maxLateness;
+        random = new Random(seed);
+    }
+
+    /**
+     * Runs the program for up to duration nanoseconds of virtual time.
+     *
+     * @throws IllegalStateException if a transition lands off its boundary
+     *         or on the wrong phase or round, or cues arrive out of order
+     */
+    public Result run(long duration) {
+        VirtualClock clock = new VirtualClock(0);
+        TimerEngine engine = new TimerEngine(clock, program);
+        CueTimeline timeline = new CueTimeline(program);
+        CueTimeline.Entry cue = new CueTimeline.Entry();
+        Oracle oracle = new Oracle(program);
+
+        long elapsed = START_DELAY;
+        clock.set(elapsed);
+        boolean cuePending =
+            timeline.next(CueScheduler.firstAfter(elapsed), cue);
+        long lastCue = -1;
+        int cueCount = 0;
+        long maxCueLateness = 0;
+
+        while (true) {
+            boolean changed = engine.update();
+            if (changed || oracle.segment == null) {
+                checkTransition(engine, oracle, elapsed);
+            }
+
+            while (cuePending && cue.time <= elapsed) {
+                if (cue.time <= lastCue) {
+                    throw new IllegalStateException(
+                        "Cue at " + cue.time + " after one at " + lastCue
+                    );
+                }
+                boolean bell = cue.cue == Cue.ROUND_BELL ||
+                    cue.cue == Cue.REST_BELL;
+                long boundary = engine.isFinished()
+                    ? program.getLength()
+                    : oracle.start;
+                if (bell && maxLateness == 0 && cue.time != boundary) {
+                    throw new IllegalStateException(
+                        "Bell at " + cue.time + " off boundary " + boundary
+                    );
+                }
+
+                if (listener != null) {
+                    listener.onCue(cue.time, cue.cue);
+                }
+                maxCueLateness = Math.max(maxCueLateness, elapsed - cue.time);
+                lastCue = cue.time;
+                cueCount++;
+                cuePending = timeline.next(cue.time + 1, cue);
+            }
+
+            if (engine.isFinished()) {
+                break;
+            }
+            long target = elapsed + engine.getNanosLeft();
+            if (cuePending) {
+                target = Math.min(target, cue.time);
+            }
+            if (target > duration) {
+                elapsed = duration;
+                break;
+            }
+
+            elapsed = target;
+            if (random != null) {
+                elapsed += (long)(random.nextDouble() * maxLateness);
+            }
+            clock.set(elapsed);
+        }
+
+        return new Result(
+            elapsed,
+            oracle.transitions,
+            cueCount,
+            engine.getRound(),
+            maxCueLateness
+        );
+    }
+
+    private void checkTransition(
+        TimerEngine engine,
+        Oracle oracle,
+        long elapsed
+    ) {
+        boolean running = oracle.advanceTo(elapsed);
+        if (running == engine.isFinished()) {
+            throw new IllegalStateException(
+                "Engine finished=" + engine.isFinished() + " at " + elapsed
+            );
+        }
+        if (!running) {
+            return;
+        }
+
+        long end = engine.getPhaseEnd() - engine.getOrigin();
+        boolean matches = end == oracle.end &&
+            engine.getPhase() == oracle.segment.getPhase() &&
+            engine.getRound() == oracle.round;
+        if (!matches) {
+            throw new IllegalStateException(String.format(
+                "At %d expected %s round %d ending %d, got %s round %d " +
+                    "ending %d",
+                elapsed,
+                oracle.segment.getPhase(),
+                oracle.round,
+                oracle.end,
+                engine.getPhase(),
+                engine.getRound(),
+                end
+            ));
+        }
+
+        if (listener != null) {
+            listener.onTransition(
+                oracle.start,
+                engine.getPhase(),
+                oracle.round
+            );
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * An immutable view of a session at its last state change, safe to hand
+ * to any thread.  The engine publishes a new one whenever the phase, round
+ * or paused state changes, so readers see every field from the same
+ * moment without taking a lock.
+ */
+public final class SessionSnapshot {
+    private final TimerPhase phase;
+    private final int round;
+    private final int segment;
+    private final boolean paused;
+    private final boolean finished;
+    private final long origin;
+    private final long pausedAt;
+    private final long phaseEnd;
+
+    SessionSnapshot(
+        TimerPhase phase,
+        int round,
+        int segment,
+        boolean paused,
+        boolean finished,
+        long origin,
+        long pausedAt,
+        long phaseEnd
+    ) {
+        this.phase = phase;
+        this.round = round;
+        this.segment = segment;
+        this.paused = paused;
+        this.finished = finished;
+        this.origin = origin;
+        this.pausedAt = pausedAt;
+        this.phaseEnd = phaseEnd;
+    }
+
+    public TimerPhase getPhase() {
+        return phase;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getOrigin() {
+        return origin;
+    }
+
+    public long getPausedAt() {
+        return pausedAt;
+    }
+
+    /**
+     * Scheduled end of the phase on the engine's clock, ignoring any pause
+     * in progress.
+     */
+    public long getPhaseEnd() {
+        return phaseEnd;
+    }
+
+    /**
+     * Nanoseconds left in the phase at the given instant on the engine's
+     * clock.  Once that passes the phase end, the snapshot is stale and a
+     * newer one is on its way.
+     */
+    public long getNanosLeft(long now) {
+        long at = paused ? pausedAt : now;
+        return Math.max(phaseEnd - at, 0);
+    }
+}
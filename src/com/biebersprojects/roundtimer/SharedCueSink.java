@@ -0,0 +1,124 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.Context;
+
+/**
+ * The process's one cue sink.  Making the real sink opens the audio output
+ * and decodes every tone, so the screens that lead to a session
+ * {@link #prewarm} it on the writer thread before the session's service
+ * even exists.  It only counts as ready once every tone has decoded.
+ *
+ * Sessions play through this, which never waits: until the real sink is
+ * ready it holds on to the latest cue and plays that once it is, unless
+ * by then it would be stale.  The real sink is kept for as long as the
+ * process lives, so a second session in the same process starts warm.
+ */
+class SharedCueSink implements CueSink {
+    private static final SharedCueSink shared = new SharedCueSink();
+
+    private boolean warming = false;
+    private CueSink sink = null;
+    private Cue pending = null;
+    private float pendingVolume;
+    private long pendingAt;
+
+    private SharedCueSink() {}
+
+    /**
+     * The sink sessions play through, whether or not it's ready yet.
+     */
+    static CueSink get() {
+        return shared;
+    }
+
+    /**
+     * Starts making the real sink on the writer thread, unless that's
+     * already been done.
+     */
+    static void prewarm(Context context) {
+        shared.warm(context.getApplicationContext());
+    }
+
+    /**
+     * Swaps in another sink, or with null goes back to making the real
+     * one on the next prewarm, so tests can listen to the cues.
+     */
+    static void set(CueSink replacement) {
+        synchronized (shared) {
+            shared.sink = replacement;
+            shared.warming = replacement != null;
+            shared.pending = null;
+        }
+    }
+
+    private synchronized void warm(final Context context) {
+        if (warming) {
+            return;
+        }
+        warming = true;
+
+        WriteBehind.shared().read(new Runnable() {
+            @Override
+            public void run() {
+                new SoundPoolCueSink(
+                    context,
+                    new SoundPoolCueSink.Listener() {
+                        @Override
+                        public void onLoaded(SoundPoolCueSink loaded) {
+                            ready(loaded);
+                        }
+                    }
+                );
+            }
+        });
+    }
+
+    private synchronized void ready(CueSink loaded) {
+        if (sink != null) {
+            // A test swapped its own in meanwhile
+            loaded.release();
+            return;
+        }
+
+        sink = loaded;
+        long waited = TimerService.ELAPSED_REALTIME.nanoTime() - pendingAt;
+        if (pending != null && waited < CueScheduler.MAX_LATENESS) {
+            sink.play(pending, pendingVolume);
+        }
+        pending = null;
+    }
+
+    @Override
+    public synchronized void play(Cue cue, float volume) {
+        if (sink != null) {
+            sink.play(cue, volume);
+            return;
+        }
+        pending = cue;
+        pendingVolume = volume;
+        pendingAt = TimerService.ELAPSED_REALTIME.nanoTime();
+    }
+
+    /**
+     * Does nothing: the real sink outlives every session.
+     */
+    @Override
+    public void release() {}
+}
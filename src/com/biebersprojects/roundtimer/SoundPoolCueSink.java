@@ -0,0 +1,123 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.media.ToneGenerator;
+import android.util.Log;
+
+/**
+ * Plays cues from a SoundPool, which decodes every tone once up front and
+ * mixes it straight out of memory when played.  Cues without a sound file
+ * are synthesised by a ToneGenerator that's also created up front.
+ * Decoding carries on in the background after the constructor returns,
+ * so the sink isn't fit to play until its listener has been told.
+ */
+class SoundPoolCueSink implements CueSink {
+    private static final String TAG = "roundtimer";
+    private static final int MAX_STREAMS = 2;
+    private static final int TONE_MILLIS = 150;
+
+    interface Listener {
+        /**
+         * Called once every sound has been decoded, on the main thread.
+         */
+        void onLoaded(SoundPoolCueSink sink);
+    }
+
+    private final SoundPool pool;
+    private final ToneGenerator tones;
+    private final int[] soundIds = new int[Cue.values().length];
+    private int loading = 0;
+
+    SoundPoolCueSink(Context context, int stream, final Listener listener) {
+        pool = new SoundPool(MAX_STREAMS, stream, 0);
+        tones = new ToneGenerator(stream, ToneGenerator.MAX_VOLUME);
+        for (Cue c: Cue.values()) {
+            if (getSound(c) != 0) {
+                loading++;
+            }
+        }
+        if (loading == 0) {
+            listener.onLoaded(this);
+            return;
+        }
+
+        pool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool pool, int id, int status) {
+                if (status != 0) {
+                    Log.w(TAG, "Couldn't decode cue sound " + id);
+                }
+                loading--;
+                if (loading == 0) {
+                    listener.onLoaded(SoundPoolCueSink.this);
+                }
+            }
+        });
+        for (Cue c: Cue.values()) {
+            if (getSound(c) != 0) {
+                soundIds[c.ordinal()] = pool.load(context, getSound(c), 1);
+            }
+        }
+    }
+
+    SoundPoolCueSink(Context context, Listener listener) {
+        this(context, AudioManager.STREAM_NOTIFICATION, listener);
+    }
+
+    @Override
+    public void play(Cue cue, float volume) {
+        if (getSound(cue) != 0) {
+            pool.play(soundIds[cue.ordinal()], volume, volume, 1, 0, 1.0f);
+        } else {
+            tones.startTone(getTone(cue), TONE_MILLIS);
+        }
+    }
+
+    /**
+     * Raw resource played for the cue, or 0 if it's a generated tone.
+     */
+    private static int getSound(Cue cue) {
+        switch (cue) {
+            case ROUND_BELL:
+                return R.raw.round_tone;
+            case REST_BELL:
+                return R.raw.rest_tone;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * ToneGenerator tone played for the cue when it has no sound.
+     */
+    private static int getTone(Cue cue) {
+        return cue == Cue.WARNING
+            ? ToneGenerator.TONE_PROP_BEEP2
+            : ToneGenerator.TONE_PROP_BEEP;
+    }
+
+    @Override
+    public void release() {
+        pool.release();
+        tones.release();
+    }
+}
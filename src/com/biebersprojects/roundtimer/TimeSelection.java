@@ -19,8 +19,11 @@ package com.biebersprojects.roundtimer;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -37,18 +40,36 @@ public class TimeSelection
         Button.OnClickListener,
         AdapterView.OnItemClickListener {
 
-    private static final String PRESETS_FILE = "presets";
+    private static final String PRESETS_FILE = "presets.bin";
+    private static final String LEGACY_PRESETS_FILE = "presets";
+    private static final String ACTION_INSTALL_SHORTCUT =
+        "com.android.launcher.action.INSTALL_SHORTCUT";
 
     private static final Map<TimerPhase, TextView> outputLabels =
         new HashMap<TimerPhase, TextView>();
     private static final Map<TimerPhase, SeekBar> inputBars =
         new HashMap<TimerPhase, SeekBar>();
 
+    // The library as last loaded or saved, so a new instance in the same
+    // process can show it without going back to disk
+    private static List<Preset> cachedPresets = null;
+    // Likewise the selected times
+    private static TimeSettings cachedSettings = null;
+
     private List<Preset> presets = null;
+    private ArrayAdapter<Preset> presetAdapter = null;
+    private TimeSettings settings = null;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        MainThreadWatch.install(this);
+        TimingStats.watchFirstFrame(
+            this,
+            System.nanoTime(),
+            TimingStats.shared().firstFrame
+        );
+        SharedCueSink.prewarm(this);
         setContentView(R.layout.timeselection);
 
         TableLayout inputTable = (TableLayout)findViewById(R.id.inputTable);
@@ -56,33 +77,126 @@ public class TimeSelection
             this.setupRow(inputTable, p);
         }
 
+        // Nothing can be started or changed until the times have been read
         Button startButton = (Button)findViewById(R.id.startButton);
         startButton.setOnClickListener(this);
+        startButton.setEnabled(false);
 
+        Button circuitButton = (Button)findViewById(R.id.circuitButton);
+        circuitButton.setOnClickListener(this);
+        circuitButton.setEnabled(false);
+        loadSettings();
+
+        // Presets can't be added until the library has been read, or saving
+        // the new one would overwrite it
         Button addPresetButton = (Button)findViewById(R.id.addPresetButton);
         addPresetButton.setOnClickListener(this);
+        addPresetButton.setEnabled(false);
 
         ListView presetView = (ListView)findViewById(R.id.presetView);
         presetView.setOnItemClickListener(this);
         loadPresets();
         registerForContextMenu(presetView);
+
+        if (savedInstanceState == null) {
+            resumeCheckpointedSession();
+        }
+    }
+
+    /**
+     * Carries on a session cut short by the process dying, from wherever
+     * the clock says it is now.  The checkpoint is read on the writer
+     * thread, as the presets are, and the timer started from there.
+     */
+    private void resumeCheckpointedSession() {
+        final File checkpoint =
+            getFileStreamPath(SessionCheckpoint.FILE_NAME);
+        WriteBehind.shared().read(new Runnable() {
+            @Override
+            public void run() {
+                long now = TimerService.ELAPSED_REALTIME.nanoTime();
+                if (SessionCheckpoint.read(checkpoint, now) == null) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            startActivity(
+                                new Intent(TimeSelection.this, Timer.class)
+                            );
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (settings != null) {
+            settings.save(WriteBehind.shared());
+        }
+        WriteBehind.shared().drainNow();
     }
 
     private void setupRow(TableLayout inputTable, TimerPhase phase) {
         addLabelRow(inputTable, phase);
         addSeekBarRow(inputTable, phase);
-        setTime(
-            phase,
-            getPreferences(MODE_PRIVATE).getInt(
-                phase.getConfigKey(),
-                phase.getDefaultTime()
-            )
-        );
+    }
+
+    /**
+     * Forgets the presets and times read by earlier instances, so the next
+     * one reads them from disk as a new process would.  For tests.
+     */
+    static void forgetCached() {
+        cachedPresets = null;
+        cachedSettings = null;
+    }
+
+    /**
+     * Reads the selected times on the writer thread, ahead of the presets,
+     * since even a small preferences file is a disk read the first frame
+     * shouldn't wait for.
+     */
+    private void loadSettings() {
+        if (cachedSettings != null) {
+            showSettings(cachedSettings);
+            return;
+        }
+
+        final SharedPreferences preferences = getPreferences(MODE_PRIVATE);
+        WriteBehind.shared().read(new Runnable() {
+            @Override
+            public void run() {
+                final TimeSettings loaded = new TimeSettings(preferences);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (cachedSettings == null) {
+                            cachedSettings = loaded;
+                        }
+                        showSettings(cachedSettings);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showSettings(TimeSettings loaded) {
+        settings = loaded;
+        for (TimerPhase p: TimerPhase.values()) {
+            setTime(p, settings.get(p));
+            inputBars.get(p).setEnabled(true);
+        }
+        findViewById(R.id.startButton).setEnabled(true);
+        findViewById(R.id.circuitButton).setEnabled(true);
     }
 
     private void addLabelRow(TableLayout inputTable, TimerPhase phase) {
         TextView label = new TextView(this);
-        label.setText(getText(phase.getInputLabel())+":");
+        label.setText(getText(PhaseResources.getInputLabel(phase))+":");
         label.setTextAppearance(this, android.R.style.TextAppearance_Large);
 
         TableRow.LayoutParams labelLayout = new TableRow.LayoutParams(0);
@@ -112,6 +226,7 @@ public class TimeSelection
         inputBars.put(phase, bar);
         bar.setMax(phase.getMaximum());
         bar.setOnSeekBarChangeListener(this);
+        bar.setEnabled(false);
 
         TableRow.LayoutParams layoutParams = new TableRow.LayoutParams(0);
         layoutParams.weight = 1;
@@ -151,7 +266,20 @@ public class TimeSelection
                     inputBars.get(p).getProgress()
                 );
             }
+            timer.putExtra(
+                TimerService.EXTRA_LAUNCHED_AT,
+                TimerService.ELAPSED_REALTIME.nanoTime()
+            );
             startActivity(timer);
+        } else if (v.getId() == R.id.circuitButton) {
+            Intent circuit = new Intent(this, CircuitTimer.class);
+            for (TimerPhase p: TimerPhase.values()) {
+                circuit.putExtra(
+                    p.getBundleConfigKey(),
+                    inputBars.get(p).getProgress()
+                );
+            }
+            startActivity(circuit);
         } else if (v.getId() == R.id.addPresetButton) {
             startAddDialog();
         }
@@ -237,14 +365,7 @@ public class TimeSelection
     }
 
     private void addPreset(String name) {
-        Map<TimerPhase, Integer> times = new HashMap<TimerPhase, Integer>();
-        for (TimerPhase p: TimerPhase.values()) {
-            times.put(
-                p,
-                getPreferences(MODE_PRIVATE).getInt(p.getConfigKey(), 0)
-            );
-        }
-        presets.add(new Preset(name, times));
+        presets.add(new Preset(name, settings.toMap()));
         updatePresets();
     }
 
@@ -259,6 +380,7 @@ public class TimeSelection
         for (Map.Entry<TimerPhase, Integer> t: preset.getTimes().entrySet()) {
             setTime(t.getKey(), t.getValue());
         }
+        settings.save(WriteBehind.shared());
     }
 
     @Override
@@ -274,85 +396,198 @@ public class TimeSelection
 
     @Override
     public boolean onContextItemSelected(MenuItem item) {
+        AdapterView.AdapterContextMenuInfo info =
+            (AdapterView.AdapterContextMenuInfo)item.getMenuInfo();
         if (item.getItemId() == R.id.deletePreset) {
-            AdapterView.AdapterContextMenuInfo info =
-                (AdapterView.AdapterContextMenuInfo)item.getMenuInfo();
-
             presets.remove(info.position);
             updatePresets();
             return true;
+        } else if (item.getItemId() == R.id.addShortcut) {
+            installShortcut(presets.get(info.position));
+            return true;
         }
         return super.onContextItemSelected(item);
     }
 
+    /**
+     * Asks the launcher for a home screen shortcut that starts the preset
+     * straight away, without going through this screen.
+     */
+    private void installShortcut(Preset preset) {
+        Intent timer = Timer.intentFor(this, preset.getTimes());
+        timer.setAction(Intent.ACTION_MAIN);
+
+        Intent install = new Intent(ACTION_INSTALL_SHORTCUT);
+        install.putExtra(Intent.EXTRA_SHORTCUT_INTENT, timer);
+        install.putExtra(Intent.EXTRA_SHORTCUT_NAME, preset.getName());
+        install.putExtra(
+            Intent.EXTRA_SHORTCUT_ICON_RESOURCE,
+            Intent.ShortcutIconResource.fromContext(
+                this,
+                R.drawable.ic_launcher
+            )
+        );
+        sendBroadcast(install);
+    }
+
+    /**
+     * Shows the preset library, reading it on the background writer thread
+     * unless it's already in memory.  Nothing is written back until the
+     * library changes, so a legacy library stays in its old file until
+     * then.
+     */
     private void loadPresets() {
+        presets = new ArrayList<Preset>();
+        presetAdapter = new ArrayAdapter<Preset>(
+            this,
+            android.R.layout.simple_list_item_1,
+            presets
+        );
+        ListView list = (ListView)findViewById(R.id.presetView);
+        list.setAdapter(presetAdapter);
+
+        if (cachedPresets != null) {
+            showPresets(cachedPresets);
+            return;
+        }
+
+        final Context context = getApplicationContext();
+        WriteBehind.shared().read(new Runnable() {
+            @Override
+            public void run() {
+                final List<Preset> loaded = readPresets(context);
+                Collections.sort(loaded);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (cachedPresets == null) {
+                            cachedPresets = loaded;
+                        }
+                        showPresets(cachedPresets);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showPresets(List<Preset> loaded) {
+        presets.clear();
+        presets.addAll(loaded);
+        presetAdapter.notifyDataSetChanged();
+        findViewById(R.id.addPresetButton).setEnabled(true);
+    }
+
+    private static List<Preset> readPresets(Context context) {
         try {
-            InputStream fin = openFileInput(PRESETS_FILE);
-            ObjectInput oin = new ObjectInputStream(fin);
-            presets = (List<Preset>)oin.readObject();
+            return PresetStore.read(context.getFileStreamPath(PRESETS_FILE));
         } catch (FileNotFoundException e) {
-            presets = Preset.defaultSet(this);
-        } catch (StreamCorruptedException e) {
-            presets = Preset.defaultSet(this);
+            return readLegacyPresets(context);
         } catch (IOException e) {
-            presets = Preset.defaultSet(this);
-        } catch (ClassNotFoundException e) {
-            presets = Preset.defaultSet(this);
-        } catch (ClassCastException e) {
-            presets = Preset.defaultSet(this);
+            return defaultPresets(context);
         }
-        updatePresets();
     }
 
-    private void updatePresets() {
-        Collections.sort(presets);
-        ListView list = (ListView)findViewById(R.id.presetView);
-        list.setAdapter(
-            new ArrayAdapter<Preset>(
-                this,
-                android.R.layout.simple_list_item_1,
-                presets
-            )
-        );
-
+    private static List<Preset> readLegacyPresets(Context context) {
         try {
-            OutputStream fout = openFileOutput(PRESETS_FILE, MODE_PRIVATE);
-            ObjectOutput oout = new ObjectOutputStream(fout);
-            oout.writeObject(presets);
-            fout.close();
-        } catch (FileNotFoundException e) {
-            // This shouldn't be able to happen opening an output file
+            return PresetStore.readLegacy(
+                context.openFileInput(LEGACY_PRESETS_FILE)
+            );
         } catch (IOException e) {
-            // Not really anything constructive we can do here
+            return defaultPresets(context);
         }
     }
 
+    private static List<Preset> defaultPresets(Context context) {
+        Resources resources = context.getResources();
+
+        Map<TimerPhase, Integer> boxingProTimes =
+            new HashMap<TimerPhase, Integer>();
+        boxingProTimes.put(TimerPhase.PREP, 30);
+        boxingProTimes.put(TimerPhase.ROUND, 180);
+        boxingProTimes.put(TimerPhase.REST, 60);
+
+        Map<TimerPhase, Integer> boxingAmateurTimes =
+            new HashMap<TimerPhase, Integer>();
+        boxingAmateurTimes.put(TimerPhase.PREP, 30);
+        boxingAmateurTimes.put(TimerPhase.ROUND, 120);
+        boxingAmateurTimes.put(TimerPhase.REST, 60);
+
+        Map<TimerPhase, Integer> mmaProTimes =
+            new HashMap<TimerPhase, Integer>();
+        mmaProTimes.put(TimerPhase.PREP, 30);
+        mmaProTimes.put(TimerPhase.ROUND, 300);
+        mmaProTimes.put(TimerPhase.REST, 60);
+
+        Map<TimerPhase, Integer> mmaAmateurTimes =
+            new HashMap<TimerPhase, Integer>();
+        mmaAmateurTimes.put(TimerPhase.PREP, 30);
+        mmaAmateurTimes.put(TimerPhase.ROUND, 180);
+        mmaAmateurTimes.put(TimerPhase.REST, 60);
+
+        return new ArrayList<Preset>(
+            Arrays.asList(
+                new Preset(
+                    resources.getString(R.string.boxing_pro),
+                    boxingProTimes
+                ),
+                new Preset(
+                    resources.getString(R.string.boxing_amateur),
+                    boxingAmateurTimes
+                ),
+                new Preset(
+                    resources.getString(R.string.mma_pro),
+                    mmaProTimes
+                ),
+                new Preset(
+                    resources.getString(R.string.mma_amateur),
+                    mmaAmateurTimes
+                )
+            )
+        );
+    }
+
+    private void updatePresets() {
+        Collections.sort(presets);
+        presetAdapter.notifyDataSetChanged();
+
+        final List<Preset> snapshot = new ArrayList<Preset>(presets);
+        cachedPresets = snapshot;
+        final File file = getFileStreamPath(PRESETS_FILE);
+        final File legacyFile = getFileStreamPath(LEGACY_PRESETS_FILE);
+        WriteBehind.shared().post(
+            PRESETS_FILE,
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        PresetStore.write(file, snapshot);
+                        legacyFile.delete();
+                    } catch (IOException e) {
+                        // Not really anything constructive we can do here
+                    }
+                }
+            }
+        );
+    }
+
     private void setTime(TimerPhase phase, int time) {
-        time = snapToInterval(time, phase.getAdjustmentInterval());
-        if (time == 0 && phase != TimerPhase.PREP) {
-            time = phase.getAdjustmentInterval();
-        }
+        time = phase.clamp(time);
 
         outputLabels.get(phase)
             .setText(String.format("%02d:%02d", time / 60, time % 60));
         inputBars.get(phase).setProgress(time);
 
-        getPreferences(MODE_PRIVATE)
-            .edit()
-            .putInt(phase.getConfigKey(), time)
-            .commit();
+        settings.set(phase, time);
     }
 
     private int getDim(int id) {
         return (int)getResources().getDimension(id);
     }
 
-    private static int snapToInterval(int x, int interval) {
-        return ((int)Math.round((double)x / interval)) * interval;
-    }
-
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {}
     @Override
-    public void onStopTrackingTouch(SeekBar seekBar) {}
+    public void onStopTrackingTouch(SeekBar seekBar) {
+        settings.save(WriteBehind.shared());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory copy of the selected phase times.  Changes only touch memory
+ * until save() hands a snapshot to the background writer, so dragging a
+ * SeekBar costs nothing on disk until the gesture ends.
+ */
+class TimeSettings {
+    private static final String WRITE_KEY = "TIME_SETTINGS";
+
+    private final SharedPreferences preferences;
+    private final int[] times = new int[TimerPhase.values().length];
+    private boolean dirty = false;
+
+    TimeSettings(SharedPreferences preferences) {
+        this.preferences = preferences;
+        for (TimerPhase p: TimerPhase.values()) {
+            times[p.ordinal()] =
+                preferences.getInt(p.getConfigKey(), p.getDefaultTime());
+        }
+    }
+
+    int get(TimerPhase phase) {
+        return times[phase.ordinal()];
+    }
+
+    void set(TimerPhase phase, int time) {
+        if (times[phase.ordinal()] != time) {
+            times[phase.ordinal()] = time;
+            dirty = true;
+        }
+    }
+
+    Map<TimerPhase, Integer> toMap() {
+        Map<TimerPhase, Integer> map = new HashMap<TimerPhase, Integer>();
+        for (TimerPhase p: TimerPhase.values()) {
+            map.put(p, times[p.ordinal()]);
+        }
+        return map;
+    }
+
+    /**
+     * Queues the current times to be written if anything changed since the
+     * last save.
+     */
+    void save(WriteBehind writer) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        final int[] snapshot = times.clone();
+        writer.post(
+            WRITE_KEY,
+            new Runnable() {
+                @Override
+                public void run() {
+                    SharedPreferences.Editor editor = preferences.edit();
+                    for (TimerPhase p: TimerPhase.values()) {
+                        editor.putInt(p.getConfigKey(), snapshot[p.ordinal()]);
+                    }
+                    editor.commit();
+                }
+            }
+        );
+    }
+}
@@ -18,153 +18,248 @@
 package com.biebersprojects.roundtimer;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
+import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.SystemClock;
+import android.os.IBinder;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 public class Timer
     extends Activity
     implements
         Button.OnClickListener,
-        CheckBox.OnCheckedChangeListener,
-        AudioManager.OnAudioFocusChangeListener,
-        MediaPlayer.OnCompletionListener {
-
-    private static final String PHASE_KEY = "PHASE";
-    private static final String ROUND_KEY = "ROUND";
-    private static final String START_TIME_KEY = "START_TIME";
-    private static final String PAUSED_TIME_KEY = "PAUSED_TIME";
-    private static final String START_PAUSE_KEY = "START_PAUSE_LABEL";
-    private static final String KEEP_SCREEN_ON_KEY = "KEEP_SCREEN_ON";
+        CheckBox.OnCheckedChangeListener {
 
-    private Map<TimerPhase, Integer> times = new HashMap<TimerPhase, Integer>();
+    private static final String TAG = "roundtimer";
+    private static final String KEEP_SCREEN_ON_KEY = "KEEP_SCREEN_ON";
+    private static final String TIMING_REPORT_KEY = "TIMING_REPORT";
+
+    // The session itself runs in TimerService; this activity only binds to
+    // it to draw the clock and forward start/pause
+    private TimerService service = null;
+    private TimerEngine engine = null;
+    private boolean visible = false;
+    private long pausedAt = 0;
+    private boolean overlayEnabled = false;
+
+    private final DisplayTicker.Subscriber display =
+        new DisplayTicker.Subscriber() {
+            @Override
+            public long onFrame() {
+                return updateDisplay();
+            }
+        };
+
+    /**
+     * What one instance hands the next across a configuration change.
+     */
+    private static class Handover {
+        final TimerService service;
+        // System.nanoTime() when the old instance paused
+        final long pausedAt;
+
+        Handover(TimerService service, long pausedAt) {
+            this.service = service;
+            this.pausedAt = pausedAt;
+        }
+    }
 
-    private TimerPhase phase = TimerPhase.PREP;
-    private int round = 0;
-    private float startTime = SystemClock.elapsedRealtime();
-    private float pausedTime = 0;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            final TimerService bound =
+                ((TimerService.LocalBinder)binder).getService();
+            service = bound;
+            // A session being resumed may still be waiting on its
+            // checkpoint
+            bound.whenSettled(new Runnable() {
+                @Override
+                public void run() {
+                    if (service == bound) {
+                        attach();
+                    }
+                }
+            });
+        }
 
-    private ScheduledFuture<?> ticker = null;
-    private MediaPlayer alertPlayer = null;
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            DisplayTicker.shared().unsubscribe(display);
+            service = null;
+            engine = null;
+        }
+    };
+
+    private void attach() {
+        engine = service.getEngine();
+        if (engine == null) {
+            // Opened without phase times and there was no session left to
+            // resume
+            finish();
+            return;
+        }
+        updateStartPauseLabel();
+        subscribeDisplay();
+    }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        long created = TimerService.ELAPSED_REALTIME.nanoTime();
         super.onCreate(savedInstanceState);
+        MainThreadWatch.install(this);
+        // Launched from a shortcut, nothing has warmed the sink yet; doing
+        // it now overlaps the decoding with inflating the layout
+        SharedCueSink.prewarm(this);
         setContentView(R.layout.timer);
         setKeepScreenOn(true);
 
-        Intent intent = getIntent();
-        for (TimerPhase p: TimerPhase.values()) {
-            times.put(
-                p,
-                intent.getIntExtra(p.getBundleConfigKey(), p.getDefaultTime())
-            );
-        }
-
         CheckBox keepScreenOnBox = (CheckBox)findViewById(R.id.keepScreenOnBox);
         keepScreenOnBox.setOnCheckedChangeListener(this);
 
         Button pauseStartButton = (Button)findViewById(R.id.startPauseButton);
         pauseStartButton.setOnClickListener(this);
 
-        ticker = Executors.newSingleThreadScheduledExecutor()
-            .scheduleAtFixedRate(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        runOnUiThread(
-                            new Runnable() {
-                                @Override
-                                public void run() {
-                                    tick();
-                                }
-                            }
-                        );
-                    }
-                },
-                0,
-                10,
-                TimeUnit.MILLISECONDS
+        // After a configuration change the old instance hands over the
+        // service it was bound to, so the clock can be drawn on the first
+        // frame instead of waiting for the new binding to connect
+        Handover handover = retainedHandover();
+        // A service still resuming from its checkpoint has no engine yet;
+        // the new binding attaches once it settles
+        if (handover != null && handover.service != null
+                && handover.service.getEngine() != null) {
+            service = handover.service;
+            engine = service.getEngine();
+            updateStartPauseLabel();
+            TimingStats.watchFirstFrame(
+                this,
+                handover.pausedAt,
+                TimingStats.shared().rotation
+            );
+        }
+
+        // The phase times ride along in the extras.  Starting the service
+        // keeps it alive while unbound; a session already running ignores
+        // them, so recreating the activity never restarts the clock.
+        // Latency is counted from the tap on the start button when there
+        // was one; a shortcut's tap happens in the launcher, out of sight,
+        // so for those it's counted from this screen being created.
+        if (service == null) {
+            Intent start = new Intent(getIntent());
+            start.setClass(this, TimerService.class);
+            long tapped =
+                start.getLongExtra(TimerService.EXTRA_LAUNCHED_AT, -1);
+            if (tapped < 0 || tapped > created) {
+                start.putExtra(TimerService.EXTRA_LAUNCHED_AT, created);
+            }
+            startService(start);
+        }
+        bindService(
+            new Intent(this, TimerService.class),
+            connection,
+            Context.BIND_AUTO_CREATE
+        );
+    }
+
+    /**
+     * An intent that opens the timer straight into a session with the
+     * given phase times, as used by launcher shortcuts.
+     */
+    static Intent intentFor(Context context, Map<TimerPhase, Integer> times) {
+        Intent intent = new Intent(context, Timer.class);
+        for (TimerPhase p: TimerPhase.values()) {
+            Integer time = times.get(p);
+            intent.putExtra(
+                p.getBundleConfigKey(),
+                time == null ? p.getDefaultTime() : time
             );
+        }
+        return intent;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Object onRetainNonConfigurationInstance() {
+        return new Handover(service, pausedAt);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Handover retainedHandover() {
+        return (Handover)getLastNonConfigurationInstance();
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        outState.putSerializable(PHASE_KEY, phase);
-        outState.putInt(ROUND_KEY, round);
-        outState.putFloat(START_TIME_KEY, startTime);
-        outState.putFloat(PAUSED_TIME_KEY, pausedTime);
-        for (Map.Entry<TimerPhase, Integer> entry: times.entrySet()) {
-            outState.putInt(entry.getKey().getConfigKey(), entry.getValue());
-        }
-
         CheckBox keepScreenOnBox = (CheckBox)findViewById(R.id.keepScreenOnBox);
         outState.putBoolean(KEEP_SCREEN_ON_KEY, keepScreenOnBox.isChecked());
-
-        Button startPauseButton = (Button)findViewById(R.id.startPauseButton);
-        outState.putCharSequence(START_PAUSE_KEY, startPauseButton.getText());
     }
 
     @Override
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
 
-        phase = (TimerPhase)savedInstanceState.getSerializable(PHASE_KEY);
-        round = savedInstanceState.getInt(ROUND_KEY);
-        startTime = savedInstanceState.getFloat(START_TIME_KEY);
-        pausedTime = savedInstanceState.getFloat(PAUSED_TIME_KEY);
-        for (TimerPhase p: TimerPhase.values()) {
-            times.put(p, savedInstanceState.getInt(p.getConfigKey()));
-        }
-
         CheckBox keepScreenOnBox = (CheckBox)findViewById(R.id.keepScreenOnBox);
         keepScreenOnBox.setChecked(
             savedInstanceState.getBoolean(KEEP_SCREEN_ON_KEY)
         );
         setKeepScreenOn(savedInstanceState.getBoolean(KEEP_SCREEN_ON_KEY));
+    }
 
-        Button startPauseButton = (Button)findViewById(R.id.startPauseButton);
-        startPauseButton.setText(
-            savedInstanceState.getCharSequence(START_PAUSE_KEY)
-        );
+    @Override
+    protected void onPause() {
+        super.onPause();
+        pausedAt = System.nanoTime();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        visible = true;
+        subscribeDisplay();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        visible = false;
+        DisplayTicker.shared().unsubscribe(display);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        ticker.cancel(true);
+        unbindService(connection);
+        if (isFinishing()) {
+            stopService(new Intent(this, TimerService.class));
+        }
     }
 
     @Override
     public void onClick(View v) {
-        Button startPauseButton = (Button)findViewById(R.id.startPauseButton);
-        if (v.getId() == R.id.startPauseButton) {
-            tick();
-            if (pausedTime == 0) {
-                startPauseButton.setText(getText(R.string.start_label));
-                pausedTime = SystemClock.elapsedRealtime() - startTime;
+        if (v.getId() == R.id.startPauseButton && engine != null) {
+            if (engine.isPaused()) {
+                service.resume();
             } else {
-                startPauseButton.setText(getText(R.string.pause_label));
-                startTime = SystemClock.elapsedRealtime() - pausedTime;
-                pausedTime = 0;
+                service.pause();
             }
+            updateStartPauseLabel();
+            DisplayTicker.shared().invalidate(display);
         }
     }
 
@@ -176,88 +271,124 @@ public class Timer
     }
 
     @Override
-    public void onAudioFocusChange(int focusChange) {
-        if (alertPlayer == null) {
-            return;
-        }
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.timer, menu);
+        return true;
+    }
 
-        switch (focusChange) {
-            case AudioManager.AUDIOFOCUS_GAIN:
-                alertPlayer.setVolume(1.0f, 1.0f);
-                if (!alertPlayer.isPlaying()) {
-                    alertPlayer.start();
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.timingOverlay:
+                overlayEnabled = !item.isChecked();
+                item.setChecked(overlayEnabled);
+                if (!overlayEnabled) {
+                    ((ClockView)findViewById(R.id.display))
+                        .setOverlayText(null);
                 }
-                break;
-
-            case AudioManager.AUDIOFOCUS_LOSS:
-                alertPlayer.stop();
-                alertPlayer.release();
-                alertPlayer = null;
-                break;
-
-            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-                alertPlayer.pause();
-                break;
+                DisplayTicker.shared().invalidate(display);
+                return true;
+
+            case R.id.saveTiming:
+                saveTimingReport();
+                return true;
+
+            case R.id.resetTiming:
+                TimingStats.shared().reset();
+                DisplayTicker.shared().invalidate(display);
+                return true;
+
+            case R.id.skipPhase:
+                if (engine != null) {
+                    service.skip();
+                    DisplayTicker.shared().invalidate(display);
+                }
+                return true;
 
-            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                alertPlayer.setVolume(0.5f, 0.5f);
-                break;
+            default:
+                return super.onOptionsItemSelected(item);
         }
     }
 
-    @Override
-    public void onCompletion(MediaPlayer mp) {
-        mp.release();
-        alertPlayer = null;
-        ((AudioManager)getSystemService(Context.AUDIO_SERVICE))
-            .abandonAudioFocus(this);
-    }
-
-    private void tick() {
-        ClockView clock = (ClockView)findViewById(R.id.display);
-
-        float now = pausedTime > 0
-            ? startTime + pausedTime
-            : SystemClock.elapsedRealtime();
-        float target = startTime + (times.get(phase) * 1000);
-        float secondsLeft = (target - now) / 1000;
-
-        int wholeSecondsLeft = (int)secondsLeft;
-        if (wholeSecondsLeft < 0) {
-            wholeSecondsLeft = 0;
+    /**
+     * Writes the timing histograms to a file where they can be pulled off
+     * the device, and says where when it's done.
+     */
+    private void saveTimingReport() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
         }
-        clock.setSecondsLeft(wholeSecondsLeft);
-        clock.setPhase(phase);
-        clock.setRound(round);
+        final File file =
+            new File(dir, "timing-" + System.currentTimeMillis() + ".txt");
+        WriteBehind.shared().post(TIMING_REPORT_KEY, new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    TimingStats.shared().dump(file);
+                    message = getString(
+                        R.string.timing_saved_format,
+                        file.getPath()
+                    );
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't save the timing report", e);
+                    message = getString(R.string.timing_save_failed);
+                }
 
-        if (secondsLeft <= 0) {
-            changePhase();
+                final String text = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(Timer.this, text, Toast.LENGTH_LONG)
+                            .show();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The clock only needs drawing while the activity is on screen and
+     * there's a session to show.
+     */
+    private void subscribeDisplay() {
+        if (visible && engine != null) {
+            DisplayTicker.shared().subscribe(display);
         }
     }
 
-    private void changePhase() {
-        startTime = SystemClock.elapsedRealtime();
-        phase = phase.next();
-        if (phase == TimerPhase.ROUND) {
-            round++;
+    /**
+     * Shows where the session is now.
+     *
+     * @return nanoseconds until the display next changes: either the next
+     *         whole second of the countdown or the end of the phase, or
+     *         DisplayTicker.IDLE while paused or once the program is over
+     */
+    private long updateDisplay() {
+        engine.update();
+
+        ClockView clock = (ClockView)findViewById(R.id.display);
+        clock.setSecondsLeft(engine.getSecondsLeft());
+        clock.setPhase(engine.getPhase());
+        clock.setRound(engine.getRound());
+        if (overlayEnabled) {
+            clock.setOverlayText(TimingStats.shared().summary());
         }
 
-        int gotFocus = ((AudioManager)getSystemService(Context.AUDIO_SERVICE))
-            .requestAudioFocus(
-                this,
-                AudioManager.STREAM_NOTIFICATION,
-                AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_MAY_DUCK
-            );
-        if (gotFocus != AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-            return;
+        if (engine.isPaused() || engine.isFinished()) {
+            return DisplayTicker.IDLE;
         }
+        return engine.getNanosUntilDisplayChange();
+    }
 
-        int alertTone = phase == TimerPhase.ROUND
-            ? R.raw.round_tone
-            : R.raw.rest_tone;
-        alertPlayer = MediaPlayer.create(this, alertTone);
-        alertPlayer.setOnCompletionListener(this);
-        alertPlayer.start();
+    private void updateStartPauseLabel() {
+        Button startPauseButton = (Button)findViewById(R.id.startPauseButton);
+        startPauseButton.setText(
+            getText(
+                engine.isPaused() ? R.string.start_label : R.string.pause_label
+            )
+        );
     }
 
     private void setKeepScreenOn(boolean keepScreenOn) {
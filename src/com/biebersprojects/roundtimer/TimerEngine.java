@@ -0,0 +1,222 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * Session state for a round timer, kept free of Android classes so it can run
+ * on a plain JVM.  All instants are nanoseconds on the timebase of the
+ * supplied {@link Clock}.  The session only tracks when it started and how
+ * long it has spent paused; every phase boundary comes from the compiled
+ * {@link IntervalProgram}, so late updates never accumulate into drift.
+ *
+ * The engine has a single owning thread.  Other threads read it only
+ * through {@link #getSnapshot()}.
+ */
+public class TimerEngine {
+    public static final long NANOS_PER_SECOND = 1000000000L;
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    private final Clock clock;
+    private final IntervalProgram program;
+    private final IntervalProgram.Position position =
+        new IntervalProgram.Position();
+
+    private long origin;
+    private boolean paused = false;
+    private long pausedAt;
+    private boolean startSkipped;
+    private volatile SessionSnapshot snapshot;
+
+    public TimerEngine(Clock clock, IntervalProgram program) {
+        this.clock = clock;
+        this.program = program;
+        origin = clock.nanoTime();
+        program.locate(0, position);
+
+        // A zero-length opening segment (no prep time) is still a boundary
+        // the first update should report
+        startSkipped = position.segment != 0;
+        publish();
+    }
+
+    public IntervalProgram getProgram() {
+        return program;
+    }
+
+    public TimerPhase getPhase() {
+        return position.phase;
+    }
+
+    public int getRound() {
+        return position.round;
+    }
+
+    public int getSegment() {
+        return position.segment;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public boolean isFinished() {
+        return position.finished;
+    }
+
+    /**
+     * Instant the session would have started had it never been paused.
+     */
+    public long getOrigin() {
+        return origin;
+    }
+
+    public long getPausedAt() {
+        return pausedAt;
+    }
+
+    /**
+     * Puts the engine back into a previously saved state.  The instants must
+     * come from the same clock timebase as this engine's clock.
+     */
+    public void restore(long origin, boolean paused, long pausedAt) {
+        this.origin = origin;
+        this.paused = paused;
+        this.pausedAt = pausedAt;
+        startSkipped = false;
+        program.locate(getElapsed(), position);
+        publish();
+    }
+
+    public void pause() {
+        if (!paused) {
+            pausedAt = clock.nanoTime();
+            paused = true;
+            publish();
+        }
+    }
+
+    public void resume() {
+        if (paused) {
+            origin += clock.nanoTime() - pausedAt;
+            paused = false;
+            publish();
+        }
+    }
+
+    /**
+     * Ends the current phase now and moves to the start of the next, as if
+     * its time had run out.  A paused session stays paused.
+     */
+    public void skip() {
+        update();
+        if (position.finished) {
+            return;
+        }
+        origin -= position.end - getElapsed();
+        program.locate(getElapsed(), position);
+        publish();
+    }
+
+    /**
+     * Moves to wherever the program is at the current time.
+     *
+     * @return true if at least one phase boundary was crossed
+     */
+    public boolean update() {
+        if (paused) {
+            return false;
+        }
+
+        int oldSegment = position.segment;
+        long oldCycle = position.cycle;
+        boolean wasFinished = position.finished;
+        program.locate(getElapsed(), position);
+        boolean changed = startSkipped ||
+            position.segment != oldSegment ||
+            position.cycle != oldCycle ||
+            position.finished != wasFinished;
+        startSkipped = false;
+        if (changed) {
+            publish();
+        }
+        return changed;
+    }
+
+    /**
+     * The state as of the last change, readable from any thread.
+     */
+    public SessionSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private void publish() {
+        snapshot = new SessionSnapshot(
+            position.phase,
+            position.round,
+            position.segment,
+            paused,
+            position.finished,
+            origin,
+            pausedAt,
+            origin + position.end
+        );
+    }
+
+    /**
+     * Nanoseconds of the program that have run, not counting pauses.
+     */
+    public long getElapsed() {
+        long now = paused ? pausedAt : clock.nanoTime();
+        return now - origin;
+    }
+
+    /**
+     * Scheduled end of the current phase, ignoring any pause in progress.
+     */
+    public long getPhaseEnd() {
+        return origin + position.end;
+    }
+
+    public long getNanosLeft() {
+        return position.end - getElapsed();
+    }
+
+    /**
+     * Whole seconds left in the phase, rounded down, as shown on the clock.
+     */
+    public int getSecondsLeft() {
+        long nanosLeft = getNanosLeft();
+        return nanosLeft <= 0 ? 0 : (int)(nanosLeft / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Nanoseconds until the next instant the display can change: the next
+     * whole second of the countdown or the end of the phase.  The displayed
+     * value drops just after each whole second passes.
+     */
+    public long getNanosUntilDisplayChange() {
+        long nanosLeft = getNanosLeft();
+        if (nanosLeft <= 0) {
+            return 0;
+        }
+        return Math.min(nanosLeft, nanosLeft % NANOS_PER_SECOND + 1);
+    }
+}
@@ -17,67 +17,46 @@
 
 package com.biebersprojects.roundtimer;
 
+/**
+ * The phases of a round timer and their time limits.  The strings and
+ * colours shown for each are in {@link PhaseResources}, so this builds
+ * without Android.
+ */
 public enum TimerPhase {
     PREP(
-        R.string.prep_time_input_label,
-        R.string.prep_time_timer_label,
         30,
         15,
         120,
-        "PREP_TIME",
-        R.color.prep_color
+        "PREP_TIME"
     ),
     ROUND(
-        R.string.round_time_input_label,
-        R.string.round_time_timer_label,
         120,
         30,
         300,
-        "ROUND_TIME",
-        R.color.round_color
+        "ROUND_TIME"
     ),
     REST(
-        R.string.rest_time_input_label,
-        R.string.rest_time_timer_label,
         60,
         30,
         300,
-        "REST_TIME",
-        R.color.rest_color
+        "REST_TIME"
     );
 
-    private int inputLabel;
-    private int timerLabel;
     private int defaultTime;
     private int adjustmentInterval;
     private int maximum;
     private String configKey;
-    private int color;
 
     TimerPhase(
-        int inputLabel,
-        int timingLabel,
         int defaultTime,
         int adjustmentInterval,
         int maximum,
-        String configKey,
-        int color
+        String configKey
     ) {
-        this.inputLabel = inputLabel;
-        this.timerLabel = timingLabel;
         this.defaultTime = defaultTime;
         this.adjustmentInterval = adjustmentInterval;
         this.maximum = maximum;
         this.configKey = configKey;
-        this.color = color;
-    }
-
-    public int getInputLabel() {
-        return inputLabel;
-    }
-
-    public int getTimerLabel() {
-        return timerLabel;
     }
 
     public int getDefaultTime() {
@@ -92,27 +71,26 @@ public enum TimerPhase {
         return maximum;
     }
 
-    public String getConfigKey() {
-        return configKey;
+    /**
+     * The nearest time this phase can be set to: a whole number of
+     * adjustment intervals up to the maximum, and never zero unless the
+     * phase can be skipped entirely.
+     */
+    public int clamp(int time) {
+        time = Math.max(0, Math.min(time, maximum));
+        time = (int)Math.round((double)time / adjustmentInterval)
+            * adjustmentInterval;
+        if (time == 0 && this != PREP) {
+            time = adjustmentInterval;
+        }
+        return time;
     }
 
-    public int getColor() {
-        return color;
+    public String getConfigKey() {
+        return configKey;
     }
 
     public String getBundleConfigKey() {
         return "com.biebersprojects.roundtimer."+configKey;
     }
-
-    public TimerPhase next() {
-        switch (this) {
-            case PREP:
-                return ROUND;
-            case ROUND:
-                return REST;
-            case REST:
-                return ROUND;
-        }
-        return null;
-    }
 }
@@ -0,0 +1,545 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a timing session in the foreground, independent of any activity.
+ * Nothing polls between cues: each upcoming cue is registered as an exact
+ * wakeup alarm on the elapsed realtime clock, so bells ring with the screen
+ * off and the CPU can sleep in between.
+ */
+public class TimerService extends Service {
+    private static final String TAG = "roundtimer";
+    private static final String ACTION_CUE =
+        "com.biebersprojects.roundtimer.CUE";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int EVENT_CAPACITY = 64;
+
+    /**
+     * Optional extra: when the session was asked for, on the
+     * {@link #ELAPSED_REALTIME} clock.  That's the tap on the start button
+     * when there was one, or else the timer screen being created.
+     */
+    static final String EXTRA_LAUNCHED_AT = "LAUNCHED_AT";
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * Monotonic clock that keeps counting through deep sleep.  Nanosecond
+     * resolution is only available from API 17, so older devices fall back
+     * to whole milliseconds.
+     */
+    static final TimerEngine.Clock ELAPSED_REALTIME =
+        new TimerEngine.Clock() {
+            @Override
+            public long nanoTime() {
+                if (Build.VERSION.SDK_INT >= 17) {
+                    return SystemClock.elapsedRealtimeNanos();
+                }
+                return SystemClock.elapsedRealtime() * NANOS_PER_MILLI;
+            }
+        };
+
+    public class LocalBinder extends Binder {
+        public TimerService getService() {
+            return TimerService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
+    // Set on the main thread; volatile so getSnapshot() on any other
+    // thread sees the engine that was started, not a stale null
+    private volatile TimerEngine engine = null;
+    private CueScheduler scheduler = null;
+    private final JitterLog jitter = new JitterLog();
+    private CueEngine cues = null;
+
+    // Opened on the writer thread, so null for a moment after onCreate;
+    // a restart that needs it to resume waits for it
+    private SessionCheckpoint checkpoint = null;
+    private boolean resumeWaiting = false;
+    private final List<Runnable> settledCallbacks = new ArrayList<Runnable>();
+    private boolean destroyed = false;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // The audio reader is drained as soon as anything is published; the
+    // session log drains on the background writer whenever it gets to it
+    private final EventRing events = new EventRing(EVENT_CAPACITY);
+    private final EventRing.Reader cueReader = events.newReader();
+    private final EventRing.Consumer cuePlayer = new EventRing.Consumer() {
+        @Override
+        public void onEvent(EventRing.Event event, boolean endOfBatch) {
+            if (event.type == EventRing.Type.CUE) {
+                cues.fire(event.cue);
+                TimingStats.shared().cueLatency.record(
+                    engine.getElapsed() - event.time
+                );
+            }
+        }
+    };
+    private SessionLog sessionLog = null;
+    private long announcedEnd = -1;
+    private boolean announcedFinished = false;
+
+    private AlarmManager alarmManager = null;
+    private PendingIntent cueAlarm = null;
+
+    // The alarm is delivered as a broadcast because the system holds a
+    // wakelock for as long as onReceive runs
+    private final BroadcastReceiver cueReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            fireCue();
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        alarmManager = (AlarmManager)getSystemService(Context.ALARM_SERVICE);
+        Intent cueIntent = new Intent(ACTION_CUE);
+        cueIntent.setPackage(getPackageName());
+        cueAlarm = PendingIntent.getBroadcast(this, 0, cueIntent, 0);
+        registerReceiver(cueReceiver, new IntentFilter(ACTION_CUE));
+
+        // The screen that started this has normally warmed the sink up
+        // already, so the tones are decoded before the session starts.
+        // Restarted by the system, nothing has, so it's started here.
+        SharedCueSink.prewarm(this);
+        cues = new CueEngine(
+            (AudioManager)getSystemService(Context.AUDIO_SERVICE),
+            SharedCueSink.get(),
+            AudioManager.STREAM_NOTIFICATION
+        );
+
+        openCheckpoint();
+    }
+
+    /**
+     * Maps the checkpoint on the writer thread, since opening it touches
+     * the disk, then hands it back to the main thread.
+     */
+    private void openCheckpoint() {
+        final File file = getFileStreamPath(SessionCheckpoint.FILE_NAME);
+        WriteBehind.shared().read(new Runnable() {
+            @Override
+            public void run() {
+                SessionCheckpoint opened = null;
+                try {
+                    opened = SessionCheckpoint.open(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Running without a session checkpoint", e);
+                }
+
+                final SessionCheckpoint result = opened;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCheckpointOpened(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param opened the checkpoint, or null if it couldn't be opened
+     */
+    private void onCheckpointOpened(SessionCheckpoint opened) {
+        if (destroyed) {
+            if (opened != null) {
+                closeCheckpoint(opened);
+            }
+            return;
+        }
+
+        checkpoint = opened;
+        if (engine != null) {
+            // A session started meanwhile; record it now
+            saveCheckpoint();
+        } else if (resumeWaiting) {
+            if (resumeSession()) {
+                beginSession();
+            } else {
+                stopSelf();
+            }
+        }
+        resumeWaiting = false;
+
+        for (Runnable callback: settledCallbacks) {
+            callback.run();
+        }
+        settledCallbacks.clear();
+    }
+
+    /**
+     * Runs the callback on the main thread once it's known whether there's
+     * a session: straight away, unless a session to resume is waiting on
+     * the checkpoint.
+     */
+    void whenSettled(Runnable callback) {
+        if (resumeWaiting) {
+            settledCallbacks.add(callback);
+        } else {
+            callback.run();
+        }
+    }
+
+    /**
+     * Starts a session from the phase times in the intent's extras, or
+     * without them picks up the session in the checkpoint, which is how
+     * the system restarts the service after killing the process.  A
+     * session that's already running is left alone.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (engine != null) {
+            return START_STICKY;
+        }
+
+        String key = TimerPhase.ROUND.getBundleConfigKey();
+        if (intent != null && intent.hasExtra(key)) {
+            Map<TimerPhase, Integer> times =
+                new HashMap<TimerPhase, Integer>();
+            for (TimerPhase p: TimerPhase.values()) {
+                // The timer screen is exported, so the times may come from
+                // anywhere and are held to what the preset screen allows
+                times.put(
+                    p,
+                    p.clamp(intent.getIntExtra(
+                        p.getBundleConfigKey(),
+                        p.getDefaultTime()
+                    ))
+                );
+            }
+            startSession(IntervalProgram.fromTimes(times), false);
+            long launchedAt = intent.getLongExtra(EXTRA_LAUNCHED_AT, -1);
+            if (launchedAt >= 0) {
+                TimingStats.shared().launchLatency.record(
+                    engine.getOrigin() - launchedAt
+                );
+            }
+        } else if (checkpoint == null) {
+            // Restarted before the checkpoint has been opened; it resumes
+            // the session once it has, or stops the service
+            resumeWaiting = true;
+            return START_STICKY;
+        } else if (!resumeSession()) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        beginSession();
+        return START_STICKY;
+    }
+
+    /**
+     * Announces the session just started or resumed and arms its first
+     * cue.
+     */
+    private void beginSession() {
+        announceTransition(false);
+        saveCheckpoint();
+        dispatchEvents();
+        armCue(CueScheduler.firstAfter(engine.getElapsed()));
+    }
+
+    private boolean resumeSession() {
+        if (checkpoint == null) {
+            return false;
+        }
+        SessionCheckpoint.Session session =
+            checkpoint.load(ELAPSED_REALTIME.nanoTime());
+        if (session == null) {
+            return false;
+        }
+
+        startSession(session.program, true);
+        engine.restore(session.origin, session.paused, session.pausedAt);
+        return true;
+    }
+
+    /**
+     * @param resumed true if this carries on a session from before, whose
+     *        log should be added to rather than replaced
+     */
+    private void startSession(IntervalProgram program, boolean resumed) {
+        engine = new TimerEngine(ELAPSED_REALTIME, program);
+        scheduler = new CueScheduler(new CueTimeline(program));
+        sessionLog = new SessionLog(
+            getFileStreamPath(SessionLog.FILE_NAME),
+            events,
+            resumed
+        );
+
+        cues.start();
+        startForeground(NOTIFICATION_ID, buildNotification());
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        alarmManager.cancel(cueAlarm);
+        unregisterReceiver(cueReceiver);
+        cues.stop();
+        stopForeground(true);
+        if (checkpoint != null) {
+            closeCheckpoint(checkpoint);
+            checkpoint = null;
+        }
+        if (jitter.getCount() > 0) {
+            Log.i(TAG, "Cue timing: " + jitter.report());
+        }
+    }
+
+    /**
+     * Marks the session over, which is only a store into the mapping, and
+     * closes the file on the writer thread.
+     */
+    private static void closeCheckpoint(final SessionCheckpoint closing) {
+        closing.clear();
+        WriteBehind.shared().read(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closing.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't close the session checkpoint", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * The running session, or null until one has been started.
+     */
+    public TimerEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * The running session's state, or null until one has been started.
+     * Unlike the engine itself, this may be read from any thread.
+     */
+    public SessionSnapshot getSnapshot() {
+        TimerEngine session = engine;
+        return session == null ? null : session.getSnapshot();
+    }
+
+    public void pause() {
+        if (engine != null) {
+            // Settle the position first, so the checkpoint and display show
+            // the phase the pause landed in
+            engine.update();
+            announceTransition(true);
+            engine.pause();
+            publish(EventRing.Type.PAUSE, engine.getElapsed(), null);
+            saveCheckpoint();
+            dispatchEvents();
+            armCue(engine.getElapsed());
+        }
+    }
+
+    public void resume() {
+        if (engine != null) {
+            engine.resume();
+            publish(EventRing.Type.RESUME, engine.getElapsed(), null);
+            saveCheckpoint();
+            dispatchEvents();
+            armCue(engine.getElapsed());
+        }
+    }
+
+    /**
+     * Cuts the current phase short.  The next phase's bell is due at once,
+     * so it rings from the alarm like any other.
+     */
+    public void skip() {
+        if (engine != null) {
+            engine.update();
+            announceTransition(true);
+            engine.skip();
+            announceTransition(false);
+            saveCheckpoint();
+            dispatchEvents();
+            armCue(engine.getElapsed());
+        }
+    }
+
+    /**
+     * Publishes a transition if the session has moved on since the last
+     * one.  The display updates the same engine, so whether update()
+     * reported the change here can't be relied on.
+     *
+     * @param crossed whether the session got here by crossing a boundary,
+     *     rather than by a skip or start, so the delay is worth recording
+     */
+    private void announceTransition(boolean crossed) {
+        SessionSnapshot snapshot = engine.getSnapshot();
+        long end = snapshot.getPhaseEnd() - snapshot.getOrigin();
+        boolean moved = end != announcedEnd ||
+            snapshot.isFinished() != announcedFinished;
+        if (moved) {
+            // The phase just left ended on the boundary that was crossed
+            if (crossed && announcedEnd >= 0 && !engine.isPaused()) {
+                TimingStats.shared().boundaryLatency.record(
+                    engine.getElapsed() - announcedEnd
+                );
+            }
+            announcedEnd = end;
+            announcedFinished = snapshot.isFinished();
+            publish(EventRing.Type.TRANSITION, engine.getElapsed(), null);
+        }
+    }
+
+    /**
+     * @param time program time of the event; for a cue, when it was due
+     */
+    private void publish(EventRing.Type type, long time, Cue cue) {
+        events.publish(
+            type,
+            time,
+            engine.getPhase(),
+            engine.getRound(),
+            cue
+        );
+    }
+
+    private void dispatchEvents() {
+        cueReader.drain(cuePlayer);
+        sessionLog.requestWrite();
+    }
+
+    private void saveCheckpoint() {
+        if (checkpoint != null) {
+            checkpoint.save(engine);
+        }
+    }
+
+    /**
+     * Registers an alarm for the first cue at or after the given program
+     * time, replacing any alarm already set.
+     */
+    private void armCue(long after) {
+        alarmManager.cancel(cueAlarm);
+        long at = scheduler.arm(engine, after);
+        if (at == CueScheduler.NO_ALARM) {
+            return;
+        }
+
+        long atMillis = (at + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+        if (Build.VERSION.SDK_INT >= 19) {
+            alarmManager.setExact(
+                AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                atMillis,
+                cueAlarm
+            );
+        } else {
+            alarmManager.set(
+                AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                atMillis,
+                cueAlarm
+            );
+        }
+    }
+
+    private void fireCue() {
+        if (engine == null || engine.isPaused()) {
+            return;
+        }
+
+        long elapsed = engine.getElapsed();
+        CueScheduler.Alarm alarm = scheduler.onAlarm(elapsed);
+        CueTimeline.Entry cue = scheduler.getArmed();
+        if (alarm == CueScheduler.Alarm.NONE) {
+            return;
+        }
+        if (alarm == CueScheduler.Alarm.EARLY) {
+            armCue(cue.time);
+            return;
+        }
+
+        // Every boundary has a bell, so this catches each phase transition
+        engine.update();
+        announceTransition(true);
+        if (alarm == CueScheduler.Alarm.DUE) {
+            publish(EventRing.Type.CUE, cue.time, cue.cue);
+            jitter.record(cue.time, elapsed);
+        }
+        saveCheckpoint();
+        dispatchEvents();
+        armCue(scheduler.nextAfter(elapsed));
+    }
+
+    @SuppressWarnings("deprecation")
+    private Notification buildNotification() {
+        Intent timerIntent = new Intent(this, Timer.class);
+        timerIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent content =
+            PendingIntent.getActivity(this, 0, timerIntent, 0);
+        CharSequence title = getText(R.string.app_name);
+        CharSequence text = getText(R.string.notification_text);
+
+        if (Build.VERSION.SDK_INT >= 11) {
+            return new Notification.Builder(this)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setContentIntent(content)
+                .setOngoing(true)
+                .getNotification();
+        }
+
+        Notification notification =
+            new Notification(R.drawable.ic_launcher, text, 0);
+        notification.flags |= Notification.FLAG_ONGOING_EVENT;
+        notification.setLatestEventInfo(this, title, text, content);
+        return notification;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.app.Activity;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Timing measurements for the whole process, kept so that devices and
+ * releases can be compared:
+ *
+ * <ul>
+ * <li>scheduling lag: how late display updates run after their deadline</li>
+ * <li>boundary latency: how long after a phase boundary the session
+ *     noticed it</li>
+ * <li>cue latency: how long after its scheduled instant a cue had been
+ *     handed to the audio system</li>
+ * <li>callback time: how long each main thread callback ran, in
+ *     debuggable builds</li>
+ * <li>frame time: how long the clock took to draw, kept apart for frames
+ *     that only drew over the cached background and frames that had to
+ *     rebuild it first</li>
+ * <li>time to first frame: from the preset screen being created to it
+ *     first being drawn</li>
+ * <li>rotation time: from the timer screen pausing for a configuration
+ *     change to the new one first being drawn</li>
+ * <li>launch latency: from the tap on the start button to the session
+ *     starting.  A shortcut is tapped in the launcher, which can't be
+ *     seen from here, so those count from the timer screen being created
+ *     and leave out the launcher and any process start.</li>
+ * </ul>
+ */
+class TimingStats {
+    private static final TimingStats shared = new TimingStats();
+
+    final LatencyHistogram schedulingLag =
+        new LatencyHistogram("Scheduling lag");
+    final LatencyHistogram boundaryLatency =
+        new LatencyHistogram("Boundary latency");
+    final LatencyHistogram cueLatency = new LatencyHistogram("Cue latency");
+    final LatencyHistogram callbackTime =
+        new LatencyHistogram("Callback time");
+    final LatencyHistogram cachedFrame =
+        new LatencyHistogram("Frame, cached background");
+    final LatencyHistogram rebuiltFrame =
+        new LatencyHistogram("Frame, rebuilt background");
+    final LatencyHistogram firstFrame =
+        new LatencyHistogram("Time to first frame");
+    final LatencyHistogram rotation =
+        new LatencyHistogram("Rotation to first frame");
+    final LatencyHistogram launchLatency =
+        new LatencyHistogram("Launch latency");
+
+    private final LatencyHistogram[] all = {
+        schedulingLag,
+        boundaryLatency,
+        cueLatency,
+        callbackTime,
+        cachedFrame,
+        rebuiltFrame,
+        firstFrame,
+        rotation,
+        launchLatency,
+    };
+
+    static TimingStats shared() {
+        return shared;
+    }
+
+    /**
+     * Records in the histogram how long after the given System.nanoTime()
+     * instant the activity's window is first drawn.
+     */
+    static void watchFirstFrame(
+        Activity activity,
+        final long since,
+        final LatencyHistogram histogram
+    ) {
+        final View root = activity.getWindow().getDecorView();
+        root.getViewTreeObserver().addOnPreDrawListener(
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    root.getViewTreeObserver().removeOnPreDrawListener(this);
+                    histogram.record(System.nanoTime() - since);
+                    return true;
+                }
+            }
+        );
+    }
+
+    /**
+     * Empties every histogram, so a run can be measured on its own.
+     */
+    void reset() {
+        for (LatencyHistogram h: all) {
+            h.reset();
+        }
+    }
+
+    /**
+     * A line per histogram of count and percentiles, short enough to draw
+     * over the clock.
+     */
+    String summary() {
+        StringBuilder out = new StringBuilder();
+        for (LatencyHistogram h: all) {
+            if (out.length() > 0) {
+                out.append('\n');
+            }
+            out.append(h.getName()).append(": n=").append(h.getCount());
+            out.append(" p50=").append(formatMillis(h.getPercentile(0.5)));
+            out.append(" p99=").append(formatMillis(h.getPercentile(0.99)));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes every histogram in full, headed by the device and Android
+     * version.  Slow; call it off the main thread.
+     */
+    void dump(File file) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append(Build.MANUFACTURER).append(' ').append(Build.MODEL);
+        out.append(", Android ").append(Build.VERSION.RELEASE);
+        out.append(" (API ").append(Build.VERSION.SDK_INT).append(")\n");
+        for (LatencyHistogram h: all) {
+            out.append('\n');
+            h.appendTo(out);
+        }
+
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(out.toString().getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static String formatMillis(long micros) {
+        return (micros / 1000) + "." + (micros / 100 % 10) + "ms";
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+/**
+ * A hierarchical timing wheel for large numbers of deadlines on one clock.
+ * Time is cut into ticks, and each of LEVELS wheels has 64 slots, each
+ * slot of level n spanning 64^n ticks.  An entry sits at the lowest level
+ * whose slot can tell its deadline apart from the current tick, and drops
+ * a level each time the wheel reaches the start of its slot, so scheduling,
+ * cancelling and expiring are all constant time however many entries
+ * there are.  A bitmap of occupied slots per level makes finding the next
+ * deadline constant time too, short of scanning the one slot that holds it.
+ *
+ * The levels reach 64^6 = 2^36 ticks, about 2.2 years at 1 ms ticks, but
+ * only within the aligned block of that many ticks the wheel is in.  An
+ * entry due in a later block waits in an overflow list, which is spread
+ * over the levels as the wheel enters each new block, so any deadline can
+ * be scheduled.  Not thread safe.
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;
+    private static final long BLOCK_MASK = (1L << (LEVELS * SLOT_BITS)) - 1;
+    private static final long NO_TICK = Long.MAX_VALUE;
+
+    /**
+     * Something to run at a deadline.  An entry is in the wheel at most
+     * once; scheduling it again moves it.
+     */
+    public abstract static class Entry {
+        private Entry prev = null;
+        private Entry next = null;
+        private int level = -1;
+        private int slot;
+        private long tick;
+
+        public boolean isScheduled() {
+            return level >= 0;
+        }
+
+        /**
+         * Runs once the deadline has passed.  May schedule this or any
+         * other entry again.
+         */
+        protected abstract void onExpired(long now);
+    }
+
+    private final long start;
+    private final long tickNanos;
+    // The extra level holds the overflow list, in its first slot
+    private final Entry[][] slots = new Entry[LEVELS + 1][SLOTS];
+    private final long[] occupied = new long[LEVELS + 1];
+    private long current = 0;
+    private int size = 0;
+
+    /**
+     * @param start instant of tick zero, on the caller's clock
+     * @param tickNanos resolution of the wheel; deadlines are rounded up to
+     *        the next tick
+     */
+    public TimingWheel(long start, long tickNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.start = start;
+        this.tickNanos = tickNanos;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sets an entry to expire once the clock reaches deadline.  A deadline
+     * already passed expires on the next call to advance().
+     */
+    public void schedule(Entry entry, long deadline) {
+        if (entry.isScheduled()) {
+            cancel(entry);
+        }
+        long offset = deadline - start;
+        long tick = offset <= 0 ? 0 : (offset + tickNanos - 1) / tickNanos;
+        entry.tick = Math.max(tick, current);
+        insert(entry);
+        size++;
+    }
+
+    public void cancel(Entry entry) {
+        if (!entry.isScheduled()) {
+            return;
+        }
+        unlink(entry);
+        size--;
+    }
+
+    /**
+     * Earliest deadline in the wheel, rounded up to its tick, or
+     * Long.MAX_VALUE if the wheel is empty.  The one instant a driver
+     * needs to wake at.
+     */
+    public long nextDeadline() {
+        for (int level = 0; level < LEVELS; level++) {
+            int slot = firstSlot(level);
+            if (slot < 0) {
+                continue;
+            }
+
+            // Lower levels only hold earlier deadlines than higher ones, so
+            // the first occupied slot of the lowest level has the earliest
+            long tick = NO_TICK;
+            for (Entry e = slots[level][slot]; e != null; e = e.next) {
+                tick = Math.min(tick, e.tick);
+            }
+            return start + tick * tickNanos;
+        }
+
+        long tick = NO_TICK;
+        for (Entry e = slots[LEVELS][0]; e != null; e = e.next) {
+            tick = Math.min(tick, e.tick);
+        }
+        return tick == NO_TICK ? Long.MAX_VALUE : start + tick * tickNanos;
+    }
+
+    /**
+     * Moves the wheel up to now, expiring every entry whose deadline has
+     * passed, in deadline order.
+     *
+     * @return the number of entries expired
+     */
+    public int advance(long now) {
+        long target = (now - start) / tickNanos;
+        int expired = 0;
+        while (true) {
+            long tick = nextEventTick();
+            if (tick > target) {
+                current = Math.max(current, target);
+                return expired;
+            }
+            current = tick;
+
+            // Slots of higher levels starting here spill into lower ones,
+            // and a new block takes in the overflow entries due within it
+            if ((tick & BLOCK_MASK) == 0) {
+                cascade(LEVELS, 0);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                long mask = (1L << (level * SLOT_BITS)) - 1;
+                if ((tick & mask) == 0) {
+                    cascade(level, slotOf(tick, level));
+                }
+            }
+
+            int slot = slotOf(tick, 0);
+            while (slots[0][slot] != null) {
+                Entry e = slots[0][slot];
+                unlink(e);
+                size--;
+                expired++;
+                e.onExpired(now);
+            }
+        }
+    }
+
+    /**
+     * The next tick at which something happens: an entry expires or a slot
+     * of a higher level has to be spread over the levels below.
+     */
+    private long nextEventTick() {
+        for (int level = 0; level < LEVELS; level++) {
+            int slot = firstSlot(level);
+            if (slot >= 0) {
+                int shift = level * SLOT_BITS;
+                long block = current >>> (shift + SLOT_BITS)
+                    << (shift + SLOT_BITS);
+                return block | ((long)slot << shift);
+            }
+        }
+        if (occupied[LEVELS] != 0) {
+            return (current | BLOCK_MASK) + 1;
+        }
+        return NO_TICK;
+    }
+
+    /**
+     * First occupied slot of a level still ahead of the current tick, or -1.
+     * Level 0 includes the current tick's own slot.
+     */
+    private int firstSlot(int level) {
+        int here = slotOf(current, level);
+        int from = level == 0 ? here : here + 1;
+        if (from >= SLOTS) {
+            return -1;
+        }
+        long ahead = occupied[level] & (-1L << from);
+        return ahead == 0 ? -1 : Long.numberOfTrailingZeros(ahead);
+    }
+
+    private void cascade(int level, int slot) {
+        Entry e = slots[level][slot];
+        slots[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        while (e != null) {
+            Entry next = e.next;
+            e.prev = null;
+            e.next = null;
+            insert(e);
+            e = next;
+        }
+    }
+
+    private void insert(Entry e) {
+        long differing = e.tick ^ current;
+        int level = differing == 0
+            ? 0
+            : (63 - Long.numberOfLeadingZeros(differing)) / SLOT_BITS;
+        int slot;
+        if (level >= LEVELS) {
+            level = LEVELS;
+            slot = 0;
+        } else {
+            slot = slotOf(e.tick, level);
+        }
+
+        e.level = level;
+        e.slot = slot;
+        e.prev = null;
+        e.next = slots[level][slot];
+        if (e.next != null) {
+            e.next.prev = e;
+        }
+        slots[level][slot] = e;
+        occupied[level] |= 1L << slot;
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            slots[e.level][e.slot] = e.next;
+            if (e.next == null) {
+                occupied[e.level] &= ~(1L << e.slot);
+            }
+        }
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        }
+        e.prev = null;
+        e.next = null;
+        e.level = -1;
+    }
+
+    private static int slotOf(long tick, int level) {
+        return (int)(tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.view.Choreographer;
+
+/**
+ * Runs a task at the start of the next display frame.  Choreographer only
+ * exists from API 16, so this lives in its own class that older devices
+ * never load.
+ */
+class VsyncFrames implements Choreographer.FrameCallback {
+    private final Runnable task;
+    private boolean posted = false;
+
+    VsyncFrames(Runnable task) {
+        this.task = task;
+    }
+
+    void post() {
+        if (!posted) {
+            posted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    void cancel() {
+        if (posted) {
+            posted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        posted = false;
+        task.run();
+    }
+}
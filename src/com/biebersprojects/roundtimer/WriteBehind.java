@@ -0,0 +1,130 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Runs disk writes on a single background thread.  Writes are posted under
+ * a key, and a write that's still waiting is replaced by a newer one with
+ * the same key, so a burst of changes turns into a single write of the
+ * final state.  Reads of the same files run on that thread too, so they
+ * always see what was written before them.  A write that throws is logged
+ * and dropped; it doesn't hold up the ones after it.
+ */
+class WriteBehind {
+    private static final String TAG = "roundtimer";
+    private static final long COALESCE_MILLIS = 250;
+
+    private static final WriteBehind shared = new WriteBehind();
+
+    private final ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, Runnable> pending =
+        new LinkedHashMap<String, Runnable>();
+    private boolean drainScheduled = false;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            for (Runnable write = take(); write != null; write = take()) {
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Background write failed", e);
+                }
+            }
+        }
+    };
+
+    /**
+     * The writer shared by the whole process, so every file has exactly one
+     * thread writing it.
+     */
+    static WriteBehind shared() {
+        return shared;
+    }
+
+    synchronized void post(String key, Runnable write) {
+        pending.put(key, write);
+        if (!drainScheduled) {
+            drainScheduled = true;
+            executor.schedule(drain, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a read straight away on the writer thread, after every pending
+     * write.
+     */
+    void read(final Runnable read) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain.run();
+                read.run();
+            }
+        });
+    }
+
+    /**
+     * Starts every pending write now, without waiting for them: for when
+     * the process may soon be killed, on a thread that mustn't block.
+     */
+    void drainNow() {
+        executor.execute(drain);
+    }
+
+    /**
+     * Performs every pending write now and waits for them to finish.
+     */
+    void flush() {
+        try {
+            executor.submit(drain).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Performs every pending write and stops the thread.  Only for writers
+     * other than the shared one, which lives as long as the process.
+     */
+    void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    private synchronized Runnable take() {
+        Iterator<Runnable> writes = pending.values().iterator();
+        if (!writes.hasNext()) {
+            drainScheduled = false;
+            return null;
+        }
+        Runnable write = writes.next();
+        writes.remove();
+        return write;
+    }
+}
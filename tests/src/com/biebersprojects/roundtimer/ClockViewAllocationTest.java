@@ -0,0 +1,75 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+/**
+ * Draws a ticking clock into a bitmap and counts what each frame
+ * allocates on this thread, which must be nothing once the caches have
+ * been built.
+ */
+public class ClockViewAllocationTest extends AndroidTestCase {
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1080;
+    private static final int FRAMES = 300;
+
+    @SuppressWarnings("deprecation")
+    public void testTickingFramesAllocateNothing() {
+        ClockView clock = new ClockView(getContext());
+        clock.measure(
+            View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+        );
+        clock.layout(0, 0, WIDTH, HEIGHT);
+        Bitmap frame = Bitmap.createBitmap(
+            WIDTH,
+            HEIGHT,
+            Bitmap.Config.ARGB_8888
+        );
+        Canvas canvas = new Canvas(frame);
+
+        // The first frames build the background layer and digit atlas
+        clock.setPhase(TimerPhase.ROUND);
+        clock.setRound(1);
+        clock.setSecondsLeft(FRAMES + 1);
+        clock.onDraw(canvas);
+        clock.setSecondsLeft(FRAMES);
+        clock.onDraw(canvas);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int s = FRAMES - 1; s >= 0; s--) {
+            clock.setSecondsLeft(s);
+            clock.onDraw(canvas);
+        }
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        frame.recycle();
+        assertEquals(
+            "Allocations over " + FRAMES + " frames",
+            0,
+            allocations
+        );
+    }
+}
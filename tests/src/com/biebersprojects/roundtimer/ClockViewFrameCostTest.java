@@ -0,0 +1,94 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Compares what a frame costs when only the digits change, drawn over the
+ * cached background, against a frame that repaints the background too, as
+ * every frame did before the cache.  The numbers are logged for comparing
+ * devices; the test only fails if the cache doesn't pay for itself.
+ */
+public class ClockViewFrameCostTest extends AndroidTestCase {
+    private static final String TAG = "roundtimer";
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1080;
+    private static final int FRAMES = 300;
+    private static final TimerPhase[] PHASES = {
+        TimerPhase.ROUND,
+        TimerPhase.REST,
+    };
+
+    @SuppressWarnings("deprecation")
+    public void testCachedFramesCostLessThanFullRepaints() {
+        ClockView clock = new ClockView(getContext());
+        clock.measure(
+            View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY)
+        );
+        clock.layout(0, 0, WIDTH, HEIGHT);
+        Bitmap frame = Bitmap.createBitmap(
+            WIDTH,
+            HEIGHT,
+            Bitmap.Config.ARGB_8888
+        );
+        Canvas canvas = new Canvas(frame);
+
+        // Warm up the layer, the atlas and the JIT before measuring
+        clock.setRound(1);
+        for (int s = FRAMES; s > 0; s--) {
+            clock.setPhase(PHASES[s % PHASES.length]);
+            clock.setSecondsLeft(s);
+            clock.onDraw(canvas);
+        }
+
+        TimingStats stats = TimingStats.shared();
+        stats.cachedFrame.reset();
+        stats.rebuiltFrame.reset();
+        for (int s = FRAMES; s > 0; s--) {
+            clock.setSecondsLeft(s);
+            clock.onDraw(canvas);
+        }
+        for (int s = FRAMES; s > 0; s--) {
+            clock.setPhase(PHASES[s % PHASES.length]);
+            clock.setSecondsLeft(s);
+            clock.onDraw(canvas);
+        }
+        frame.recycle();
+
+        StringBuilder report = new StringBuilder();
+        stats.cachedFrame.appendTo(report);
+        report.append('\n');
+        stats.rebuiltFrame.appendTo(report);
+        Log.i(TAG, report.toString());
+
+        assertEquals(FRAMES, stats.cachedFrame.getCount());
+        assertEquals(FRAMES, stats.rebuiltFrame.getCount());
+        long cached = stats.cachedFrame.getPercentile(0.5);
+        long rebuilt = stats.rebuiltFrame.getPercentile(0.5);
+        assertTrue(
+            "Median cached frame " + cached + "us, rebuilt " + rebuilt + "us",
+            cached <= rebuilt
+        );
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.Context;
+import android.content.Intent;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a real session in {@link TimerService} with a fake sink in place
+ * of the audio system, and measures how long after its instant in the
+ * program each cue reached the sink.
+ */
+public class CueLatencyTest extends InstrumentationTestCase {
+    private static final String TAG = "roundtimer";
+    private static final int PREP_SECONDS = 15;
+    private static final long TIMEOUT_MILLIS = 5000;
+    // How late a cue may be and still sound like it's on the boundary
+    private static final long BUDGET_MICROS = 20000;
+
+    /**
+     * Notes when each cue was played, on the service's clock.
+     */
+    private static class FakeSink implements CueSink {
+        final List<Cue> cues = new ArrayList<Cue>();
+        final List<Long> playedAt = new ArrayList<Long>();
+        final CountDownLatch roundBell = new CountDownLatch(1);
+
+        @Override
+        public synchronized void play(Cue cue, float volume) {
+            playedAt.add(TimerService.ELAPSED_REALTIME.nanoTime());
+            cues.add(cue);
+            if (cue == Cue.ROUND_BELL) {
+                roundBell.countDown();
+            }
+        }
+
+        @Override
+        public void release() {}
+    }
+
+    private final FakeSink sink = new FakeSink();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SharedCueSink.set(sink);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        context.stopService(new Intent(context, TimerService.class));
+        getInstrumentation().waitForIdleSync();
+        SharedCueSink.set(null);
+        super.tearDown();
+    }
+
+    public void testCuesReachTheSinkOnTime() throws Exception {
+        Map<TimerPhase, Integer> times = new HashMap<TimerPhase, Integer>();
+        times.put(TimerPhase.PREP, PREP_SECONDS);
+        Context context = getInstrumentation().getTargetContext();
+        Intent start = Timer.intentFor(context, times);
+        start.setClass(context, TimerService.class);
+        context.startService(start);
+
+        TimerEngine engine =
+            TestServices.connect(context, TIMEOUT_MILLIS).getEngine();
+        assertNotNull(engine);
+        long origin = engine.getOrigin();
+        assertTrue(
+            "Never rang the round bell",
+            sink.roundBell.await(
+                PREP_SECONDS * 1000 + TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS
+            )
+        );
+
+        // Every cue up to the bell should have been played, in order, and
+        // none of them late
+        CueTimeline timeline = new CueTimeline(engine.getProgram());
+        CueTimeline.Entry entry = new CueTimeline.Entry();
+        LatencyHistogram latency = new LatencyHistogram("Sink latency");
+        long after = 0;
+        synchronized (sink) {
+            assertFalse(sink.cues.isEmpty());
+            for (int i = 0; i < sink.cues.size(); i++) {
+                assertTrue(timeline.next(after, entry));
+                assertEquals(entry.cue, sink.cues.get(i));
+                long late = sink.playedAt.get(i) - origin - entry.time;
+                assertTrue("Played early", late >= 0);
+                latency.record(late);
+                after = entry.time + 1;
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        latency.appendTo(report);
+        Log.i(TAG, report.toString());
+        assertTrue(
+            "Latest cue " + latency.getMax() + "us",
+            latency.getMax() <= BUDGET_MICROS
+        );
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens the timer the way a home screen shortcut does and checks that the
+ * session starts, promptly, whatever phase times the intent carries.
+ */
+public class LaunchLatencyTest extends InstrumentationTestCase {
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long POLL_MILLIS = 10;
+    // Generous, since the emulators this runs on are slow; a launch that
+    // decodes its tones on the main thread again still goes well over
+    private static final long LAUNCH_BUDGET_MICROS = 500000;
+
+    private Activity timer = null;
+
+    public void testShortcutStartsSessionPromptly() throws Exception {
+        Map<TimerPhase, Integer> times = new HashMap<TimerPhase, Integer>();
+        times.put(TimerPhase.PREP, 15);
+        times.put(TimerPhase.ROUND, 120);
+        times.put(TimerPhase.REST, 30);
+
+        LatencyHistogram launches = TimingStats.shared().launchLatency;
+        launches.reset();
+        launch(times);
+
+        assertEquals(1, launches.getCount());
+        assertTrue(
+            "Launch took " + launches.getMax() + "us",
+            launches.getMax() <= LAUNCH_BUDGET_MICROS
+        );
+    }
+
+    public void testZeroTimesAreClamped() throws Exception {
+        Map<TimerPhase, Integer> times = new HashMap<TimerPhase, Integer>();
+        times.put(TimerPhase.PREP, 0);
+        times.put(TimerPhase.ROUND, 0);
+        times.put(TimerPhase.REST, -60);
+
+        launch(times);
+
+        TimerEngine engine = TestServices.connect(
+            getInstrumentation().getTargetContext(),
+            TIMEOUT_MILLIS
+        ).getEngine();
+        assertNotNull(engine);
+        for (IntervalProgram.Segment s: engine.getProgram().getCycle()) {
+            assertEquals(
+                s.getPhase().getAdjustmentInterval(),
+                s.getSeconds()
+            );
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        if (timer != null) {
+            timer.finish();
+            timer = null;
+        }
+        context.stopService(new Intent(context, TimerService.class));
+        getInstrumentation().waitForIdleSync();
+        super.tearDown();
+    }
+
+    /**
+     * Opens the timer with the given times and waits for its session to
+     * start.
+     */
+    private void launch(Map<TimerPhase, Integer> times) {
+        Context context = getInstrumentation().getTargetContext();
+        Intent intent = Timer.intentFor(context, times);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        LatencyHistogram launches = TimingStats.shared().launchLatency;
+        long before = launches.getCount();
+        timer = getInstrumentation().startActivitySync(intent);
+
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (launches.getCount() == before) {
+            assertTrue(
+                "Session never started",
+                SystemClock.uptimeMillis() < deadline
+            );
+            SystemClock.sleep(POLL_MILLIS);
+        }
+    }
+}
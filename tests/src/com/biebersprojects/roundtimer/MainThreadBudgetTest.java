@@ -0,0 +1,113 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.TouchUtils;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.SeekBar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scripts the preset screen the way a user drives it and checks that no
+ * main thread callback, as timed by {@link MainThreadWatch}, went over the
+ * configured budget.
+ */
+public class MainThreadBudgetTest
+    extends ActivityInstrumentationTestCase2<TimeSelection> {
+    private static final int DRAGS = 5;
+    private static final int DRAG_STEPS = 20;
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long POLL_MILLIS = 10;
+
+    public MainThreadBudgetTest() {
+        super(TimeSelection.class);
+    }
+
+    public void testDraggingTimesStaysWithinBudget() {
+        TimeSelection activity = getActivity();
+        long budgetMicros =
+            MainThreadWatch.getBudgetNanos(activity) / NANOS_PER_MICRO;
+
+        List<SeekBar> bars = new ArrayList<SeekBar>();
+        findSeekBars(activity.findViewById(R.id.inputTable), bars);
+        assertFalse(bars.isEmpty());
+
+        // Launch is measured separately, as time to first frame, and the
+        // bars only take drags once the times have been read
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (!bars.get(0).isEnabled()) {
+            assertTrue(
+                "Times never loaded",
+                SystemClock.uptimeMillis() < deadline
+            );
+            SystemClock.sleep(POLL_MILLIS);
+        }
+        getInstrumentation().waitForIdleSync();
+        LatencyHistogram callbacks = TimingStats.shared().callbackTime;
+        callbacks.reset();
+        for (int i = 0; i < DRAGS; i++) {
+            for (SeekBar bar: bars) {
+                drag(bar, i % 2 == 0);
+            }
+        }
+        getInstrumentation().waitForIdleSync();
+
+        assertTrue(callbacks.getCount() > 0);
+        assertTrue(
+            "Slowest callback " + callbacks.getMax() + "us, budget " +
+                budgetMicros + "us",
+            callbacks.getMax() <= budgetMicros
+        );
+    }
+
+    /**
+     * Drags the bar's thumb from one end to the other.
+     */
+    private void drag(SeekBar bar, boolean right) {
+        int[] location = new int[2];
+        bar.getLocationOnScreen(location);
+        float left = location[0] + 1;
+        float end = location[0] + bar.getWidth() - 1;
+        float y = location[1] + bar.getHeight() / 2f;
+        TouchUtils.drag(
+            this,
+            right ? left : end,
+            right ? end : left,
+            y,
+            y,
+            DRAG_STEPS
+        );
+    }
+
+    private static void findSeekBars(View view, List<SeekBar> bars) {
+        if (view instanceof SeekBar) {
+            bars.add((SeekBar)view);
+        } else if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup)view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                findSeekBars(group.getChildAt(i), bars);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+/**
+ * Lets tests look inside the running {@link TimerService}.
+ */
+class TestServices {
+    private TestServices() {}
+
+    /**
+     * The running service, bound just long enough to look at it.  Must not
+     * be called on the main thread, which delivers the connection.
+     */
+    static TimerService connect(Context context, long timeoutMillis)
+        throws InterruptedException {
+        final TimerService[] service = new TimerService[1];
+        final CountDownLatch connected = new CountDownLatch(1);
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder b) {
+                service[0] = ((TimerService.LocalBinder)b).getService();
+                connected.countDown();
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {}
+        };
+
+        context.bindService(
+            new Intent(context, TimerService.class),
+            connection,
+            0
+        );
+        try {
+            Assert.assertTrue(
+                "Never connected",
+                connected.await(timeoutMillis, TimeUnit.MILLISECONDS)
+            );
+            return service[0];
+        } finally {
+            context.unbindService(connection);
+        }
+    }
+}
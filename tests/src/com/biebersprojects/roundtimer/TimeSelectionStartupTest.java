@@ -0,0 +1,63 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * Opens the preset screen with nothing cached, as the first launch of a
+ * process does, and logs how long each launch took to reach its first
+ * frame, as recorded by the screen itself.
+ */
+public class TimeSelectionStartupTest extends InstrumentationTestCase {
+    private static final String TAG = "roundtimer";
+    private static final int LAUNCHES = 5;
+    // Generous, since the emulators this runs on are slow; reading the
+    // presets or times on the main thread again still goes well over
+    private static final long FIRST_FRAME_BUDGET_MICROS = 1000000;
+
+    public void testColdStartReachesFirstFrame() {
+        Context context = getInstrumentation().getTargetContext();
+        LatencyHistogram firstFrame = TimingStats.shared().firstFrame;
+        firstFrame.reset();
+
+        for (int i = 0; i < LAUNCHES; i++) {
+            TimeSelection.forgetCached();
+            Intent intent = new Intent(context, TimeSelection.class);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            Activity activity =
+                getInstrumentation().startActivitySync(intent);
+            getInstrumentation().waitForIdleSync();
+            activity.finish();
+            getInstrumentation().waitForIdleSync();
+        }
+
+        StringBuilder report = new StringBuilder();
+        firstFrame.appendTo(report);
+        Log.i(TAG, report.toString());
+        assertEquals(LAUNCHES, firstFrame.getCount());
+        assertTrue(
+            "Slowest first frame " + firstFrame.getMax() + "us",
+            firstFrame.getMax() <= FIRST_FRAME_BUDGET_MICROS
+        );
+    }
+}
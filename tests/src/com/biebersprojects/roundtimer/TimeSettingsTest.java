@@ -0,0 +1,131 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+/**
+ * Counts the disk writes a SeekBar drag turns into: every progress change
+ * only touches memory, and the save at the end of the gesture is one
+ * write, or none if nothing changed.
+ */
+public class TimeSettingsTest extends AndroidTestCase {
+    private static final String PREFERENCES = "TimeSettingsTest";
+    private static final int PROGRESS_CHANGES = 100;
+
+    /**
+     * The real writer, counting what's posted to it and what it actually
+     * writes.
+     */
+    private static class CountingWriteBehind extends WriteBehind {
+        int posts = 0;
+        int writes = 0;
+
+        @Override
+        synchronized void post(String key, final Runnable write) {
+            posts++;
+            super.post(key, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (CountingWriteBehind.this) {
+                        writes++;
+                    }
+                    write.run();
+                }
+            });
+        }
+    }
+
+    private SharedPreferences preferences;
+    private CountingWriteBehind writer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        preferences = getContext().getSharedPreferences(
+            PREFERENCES,
+            Context.MODE_PRIVATE
+        );
+        preferences.edit().clear().commit();
+        writer = new CountingWriteBehind();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writer.shutdown();
+        super.tearDown();
+    }
+
+    public void testDragIsOneWrite() {
+        TimeSettings settings = new TimeSettings(preferences);
+        drag(settings, TimerPhase.ROUND);
+        settings.save(writer);
+        writer.flush();
+
+        assertEquals(1, writer.posts);
+        assertEquals(1, writer.writes);
+        assertEquals(
+            PROGRESS_CHANGES,
+            preferences.getInt(TimerPhase.ROUND.getConfigKey(), -1)
+        );
+    }
+
+    public void testQuickDragsCoalesce() {
+        TimeSettings settings = new TimeSettings(preferences);
+        for (TimerPhase p: TimerPhase.values()) {
+            drag(settings, p);
+            settings.save(writer);
+        }
+        writer.flush();
+
+        assertEquals(TimerPhase.values().length, writer.posts);
+        assertEquals(1, writer.writes);
+        for (TimerPhase p: TimerPhase.values()) {
+            assertEquals(
+                PROGRESS_CHANGES,
+                preferences.getInt(p.getConfigKey(), -1)
+            );
+        }
+    }
+
+    public void testSaveWithoutChangesWritesNothing() {
+        TimeSettings settings = new TimeSettings(preferences);
+        settings.save(writer);
+        assertEquals(0, writer.posts);
+
+        drag(settings, TimerPhase.REST);
+        settings.save(writer);
+        settings.save(writer);
+        writer.flush();
+
+        assertEquals(1, writer.posts);
+        assertEquals(1, writer.writes);
+    }
+
+    /**
+     * A progress change for each step of the bar, ending on
+     * PROGRESS_CHANGES.
+     */
+    private static void drag(TimeSettings settings, TimerPhase phase) {
+        for (int i = 1; i <= PROGRESS_CHANGES; i++) {
+            settings.set(phase, i);
+        }
+    }
+}
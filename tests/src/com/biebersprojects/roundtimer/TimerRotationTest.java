@@ -0,0 +1,99 @@
+/*
+ *  This file is part of roundtimer.
+ *
+ *  roundtimer is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  roundtimer is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with roundtimer.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.biebersprojects.roundtimer;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Rotates the timer back and forth during a session and logs how long each
+ * rotation took to reach its first frame, as recorded by the timer itself.
+ */
+public class TimerRotationTest
+    extends ActivityInstrumentationTestCase2<Timer> {
+    private static final String TAG = "roundtimer";
+    private static final int ROTATIONS = 10;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private Activity current = null;
+
+    public TimerRotationTest() {
+        super(Timer.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setActivityIntent(
+            Timer.intentFor(
+                getInstrumentation().getTargetContext(),
+                new HashMap<TimerPhase, Integer>()
+            )
+        );
+    }
+
+    public void testEveryRotationReachesAFrame() {
+        Instrumentation instrumentation = getInstrumentation();
+        current = getActivity();
+        instrumentation.waitForIdleSync();
+        Instrumentation.ActivityMonitor monitor =
+            instrumentation.addMonitor(Timer.class.getName(), null, false);
+
+        LatencyHistogram rotation = TimingStats.shared().rotation;
+        rotation.reset();
+        try {
+            for (int i = 0; i < ROTATIONS; i++) {
+                current.setRequestedOrientation(
+                    i % 2 == 0
+                        ? ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE
+                        : ActivityInfo.SCREEN_ORIENTATION_PORTRAIT
+                );
+                Activity next =
+                    monitor.waitForActivityWithTimeout(TIMEOUT_MILLIS);
+                assertNotNull("Never recreated", next);
+                current = next;
+                instrumentation.waitForIdleSync();
+            }
+        } finally {
+            instrumentation.removeMonitor(monitor);
+        }
+
+        StringBuilder report = new StringBuilder();
+        rotation.appendTo(report);
+        Log.i(TAG, report.toString());
+        assertEquals(ROTATIONS, rotation.getCount());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Context context = getInstrumentation().getTargetContext();
+        if (current != null) {
+            current.finish();
+            current = null;
+        }
+        context.stopService(new Intent(context, TimerService.class));
+        super.tearDown();
+    }
+}